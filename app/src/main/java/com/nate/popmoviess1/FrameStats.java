@@ -0,0 +1,296 @@
+package com.nate.popmoviess1;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.support.v4.view.ViewPager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Frame timing for the movie grid and the detail pager, so smoothness can actually be measured.
+ * While the grid is scrolling or the pager is being swiped, every frame's duration goes into a
+ * histogram, and any frame that took longer than one display refresh counts the refreshes it missed
+ * as dropped frames.  The time spent binding grid posters and creating detail pages is kept in
+ * histograms too, since that is the work most likely to cause a dropped frame.
+ *
+ * <p>
+ * Off by default, it costs a boolean check when off.  Turn it on with
+ * 'adb shell setprop log.tag.FrameStats DEBUG' before the app starts, or call setEnabled from a
+ * test.  A scripted scroll test can call reset, scroll, then assert on getHistogram, for example
+ * that getHistogram(GRID_SCROLL).getPercentileMillis(90) is under 16.  exportHistograms returns
+ * everything as json, and every scroll or swipe logs its summary to the FrameStats tag.
+ * </p>
+ *
+ * <p>
+ * Frame durations come from Choreographer, which is API 16, so on older devices only the bind and
+ * create view timings are recorded.
+ * </p>
+ *
+ * @author Nathan Merris
+ */
+public final class FrameStats {
+    private static final String TAG = "FrameStats"; // short and unprefixed so setprop log.tag.FrameStats works
+
+    public static final String GRID_SCROLL = "grid_scroll";               // frames while the grid scrolls
+    public static final String PAGER_SWIPE = "pager_swipe";               // frames while the pager moves
+    public static final String GRID_BIND = "grid_bind";                   // MoviePosterAdapter.onBindViewHolder
+    public static final String DETAIL_CREATE_VIEW = "detail_create_view"; // MovieDetailFragment.onCreateView
+
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private static volatile boolean sEnabled = Log.isLoggable(TAG, Log.DEBUG);
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>(); // guarded by itself
+
+
+    private FrameStats() {
+    }
+
+
+    /**
+     * Durations in 1 ms buckets from 0 to MAX_MILLIS, anything longer goes in the last bucket.
+     * Frame histograms also count dropped frames.
+     */
+    public static final class Histogram {
+        public static final int MAX_MILLIS = 100;
+
+        private final long[] mBuckets = new long[MAX_MILLIS + 1];
+        private long mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private long mDroppedFrames;
+
+
+        synchronized void record(long nanos) {
+            int millis = (int) Math.min(MAX_MILLIS, nanos / 1000000L);
+            mBuckets[Math.max(0, millis)]++;
+            mCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        synchronized void addDroppedFrames(long dropped) { mDroppedFrames += dropped; }
+
+
+        public synchronized long getCount() { return mCount; }
+
+        public synchronized long getDroppedFrames() { return mDroppedFrames; }
+
+        public synchronized double getMeanMillis() { return mCount == 0 ? 0 : mTotalNanos / 1e6 / mCount; }
+
+        public synchronized double getMaxMillis() { return mMaxNanos / 1e6; }
+
+        public synchronized long[] getBuckets() { return mBuckets.clone(); }
+
+
+        /**
+         * @param percentile 0 to 100
+         * @return the upper edge of the bucket the percentile falls in, in ms, 0 if nothing was recorded
+         */
+        public synchronized int getPercentileMillis(int percentile) {
+            if(mCount == 0) return 0;
+            long target = (long) Math.ceil(mCount * percentile / 100.0);
+            long seen = 0;
+            for (int millis = 0; millis <= MAX_MILLIS; millis++) {
+                seen += mBuckets[millis];
+                if(seen >= Math.max(1, target)) return millis + 1;
+            }
+            return MAX_MILLIS + 1;
+        }
+
+
+        synchronized String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"count\":").append(mCount)
+                    .append(",\"dropped_frames\":").append(mDroppedFrames)
+                    .append(",\"mean_ms\":").append(String.format(Locale.US, "%.2f", getMeanMillis())) // always a '.', it's json
+                    .append(",\"p50_ms\":").append(getPercentileMillis(50))
+                    .append(",\"p90_ms\":").append(getPercentileMillis(90))
+                    .append(",\"p99_ms\":").append(getPercentileMillis(99))
+                    .append(",\"max_ms\":").append(String.format(Locale.US, "%.2f", getMaxMillis()))
+                    .append(",\"buckets_ms\":[");
+            for (int i = 0; i < mBuckets.length; i++) {
+                if(i > 0) json.append(',');
+                json.append(mBuckets[i]);
+            }
+            return json.append("]}").toString();
+        }
+
+
+        @Override
+        public synchronized String toString() {
+            return "count: " + mCount + ", dropped: " + mDroppedFrames
+                    + ", p50: " + getPercentileMillis(50) + "ms, p90: " + getPercentileMillis(90)
+                    + "ms, p99: " + getPercentileMillis(99) + "ms, max: " + String.format(Locale.US, "%.1f", getMaxMillis()) + "ms";
+        }
+    }
+
+
+    public static boolean isEnabled() { return sEnabled; }
+
+    public static void setEnabled(boolean enabled) { sEnabled = enabled; }
+
+
+    /**
+     * @param name one of the names above, like GRID_SCROLL
+     * @return the histogram, never null, empty if nothing has been recorded under that name
+     */
+    public static Histogram getHistogram(String name) {
+        synchronized (sHistograms) {
+            Histogram histogram = sHistograms.get(name);
+            if(histogram == null) {
+                histogram = new Histogram();
+                sHistograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+
+    public static void reset() {
+        synchronized (sHistograms) {
+            sHistograms.clear();
+        }
+    }
+
+
+    /**
+     * @return every histogram as a json object keyed by name
+     */
+    public static String exportHistograms() {
+        StringBuilder json = new StringBuilder("{");
+        synchronized (sHistograms) {
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                if(json.length() > 1) json.append(',');
+                json.append('"').append(entry.getKey()).append("\":").append(entry.getValue().toJson());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+
+    /**
+     * Use around a piece of main thread work that should be timed, like onBindViewHolder.
+     *
+     * @return the start time to hand to stopTimer, 0 if FrameStats is off
+     */
+    static long startTimer() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+
+    static void stopTimer(String name, long startNanos) {
+        if(startNanos != 0) getHistogram(name).record(System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * Records frames into the GRID_SCROLL histogram whenever recyclerView is scrolling.
+     *
+     * @param recyclerView the movie grid
+     */
+    static void trackScrolling(final RecyclerView recyclerView) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        final FrameRecorder recorder = new FrameRecorder(GRID_SCROLL, refreshRateOf(recyclerView.getContext()));
+        recyclerView.addOnAttachStateChangeListener(recorder);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                recorder.setRunning(newState != RecyclerView.SCROLL_STATE_IDLE);
+            }
+        });
+    }
+
+
+    /**
+     * Records frames into the PAGER_SWIPE histogram whenever viewPager is being dragged or settling.
+     *
+     * @param viewPager the movie detail pager
+     */
+    static void trackPaging(ViewPager viewPager) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        final FrameRecorder recorder = new FrameRecorder(PAGER_SWIPE, refreshRateOf(viewPager.getContext()));
+        viewPager.addOnAttachStateChangeListener(recorder);
+        viewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageScrollStateChanged(int state) {
+                recorder.setRunning(state != ViewPager.SCROLL_STATE_IDLE);
+            }
+        });
+    }
+
+
+    private static float refreshRateOf(Context context) {
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        return refreshRate > 1 ? refreshRate : DEFAULT_REFRESH_RATE; // some emulators report 0
+    }
+
+
+    // measures the time between consecutive vsyncs while running, main thread only, stops when its
+    // view is detached, a view that goes away mid scroll never gets the idle state that would stop it
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameRecorder implements Choreographer.FrameCallback, View.OnAttachStateChangeListener {
+        private final String mName;
+        private final long mRefreshPeriodNanos;
+        private boolean mRunning;
+        private long mLastFrameNanos;
+
+        FrameRecorder(String name, float refreshRate) {
+            mName = name;
+            mRefreshPeriodNanos = (long) (1e9 / refreshRate);
+        }
+
+        void setRunning(boolean running) {
+            if(running == mRunning) return;
+            if(running && !sEnabled) return;
+
+            mRunning = running;
+            mLastFrameNanos = 0;
+            if(running) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+            else {
+                Choreographer.getInstance().removeFrameCallback(this);
+                Log.d(TAG, mName + " " + getHistogram(mName));
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if(!mRunning) return;
+
+            if(mLastFrameNanos != 0) {
+                long duration = frameTimeNanos - mLastFrameNanos;
+                Histogram histogram = getHistogram(mName);
+                histogram.record(duration);
+
+                // a frame that took 2.5 refresh periods means 2 vsyncs went by with nothing new drawn
+                long missed = Math.round((double) duration / mRefreshPeriodNanos) - 1;
+                if(missed > 0) histogram.addDroppedFrames(missed);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View view) {
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+            setRunning(false);
+        }
+    }
+
+
+}
@@ -0,0 +1,153 @@
+package com.nate.popmoviess1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.preference.ListPreference;
+import android.support.v7.preference.PreferenceDialogFragmentCompat;
+import android.widget.ListView;
+
+
+/**
+ * The dialog for the genre ListPreference, it lets the user check more than one genre.
+ * preference-v7 has no MultiSelectListPreference, so PreferencesFragment shows this in place of the
+ * ListPreference's own single choice dialog.  The genre ListPreference still holds the entries and
+ * the value, the value is just a comma separated list of genre ids now, like '28,35', which is what
+ * MovieQuery already knows how to read.
+ *
+ * <p>
+ * The first entry is always 'Any Genre', checking it clears every other genre, checking any other
+ * genre clears it, and un-checking everything checks it again.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see PreferencesFragment#onDisplayPreferenceDialog(android.support.v7.preference.Preference)
+ * @see MovieQuery
+ */
+public class GenreListPreferenceDialogFragment extends PreferenceDialogFragmentCompat
+        implements DialogInterface.OnMultiChoiceClickListener {
+
+    static final String SEPARATOR = ",";
+    private static final String SAVED_CHECKED = "GenreListPreferenceDialogFragment.checked";
+
+    private boolean[] mChecked; // one per entry, mChecked[0] is 'Any Genre'
+
+
+    public static GenreListPreferenceDialogFragment newInstance(String key) {
+        Bundle args = new Bundle();
+        args.putString(ARG_KEY, key);
+        GenreListPreferenceDialogFragment fragment = new GenreListPreferenceDialogFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+
+    // '28,35' to ['28', '35'], empty or null is an empty list
+    static List<String> splitValues(String value) {
+        List<String> values = new ArrayList<>();
+        if(value == null) return values;
+
+        for (String token : value.split(SEPARATOR)) {
+            token = token.trim();
+            if(!token.isEmpty() && !values.contains(token)) values.add(token);
+        }
+        return values;
+    }
+
+
+    private ListPreference getListPreference() {
+        return (ListPreference) getPreference();
+    }
+
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        CharSequence[] entryValues = getListPreference().getEntryValues();
+        if(savedInstanceState != null) mChecked = savedInstanceState.getBooleanArray(SAVED_CHECKED);
+
+        // the genres may have been refetched while the dialog was gone, if so start over from the pref
+        if(mChecked == null || mChecked.length != entryValues.length) {
+            List<String> selected = splitValues(getListPreference().getValue());
+            mChecked = new boolean[entryValues.length];
+            for (int i = 0; i < entryValues.length; i++) {
+                mChecked[i] = selected.contains(entryValues[i].toString());
+            }
+            if(!anyChecked()) mChecked[0] = true;
+        }
+    }
+
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBooleanArray(SAVED_CHECKED, mChecked);
+    }
+
+
+    @Override
+    protected void onPrepareDialogBuilder(AlertDialog.Builder builder) {
+        super.onPrepareDialogBuilder(builder);
+
+        // the dialog writes the user's clicks straight into mChecked
+        builder.setMultiChoiceItems(getListPreference().getEntries(), mChecked, this);
+        builder.setPositiveButton(android.R.string.ok, this);
+    }
+
+
+    @Override
+    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+        ListView listView = ((AlertDialog) dialog).getListView();
+        mChecked[which] = isChecked;
+
+        if(which == 0 && isChecked) { // 'Any Genre' means none of the others
+            for (int i = 1; i < mChecked.length; i++) setChecked(listView, i, false);
+        }
+        else if(isChecked) {
+            setChecked(listView, 0, false);
+        }
+
+        if(!anyChecked()) setChecked(listView, 0, true);
+    }
+
+
+    @Override
+    public void onDialogClosed(boolean positiveResult) {
+        if(!positiveResult) return;
+
+        ListPreference listPreference = getListPreference();
+        CharSequence[] entryValues = listPreference.getEntryValues();
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 1; i < entryValues.length; i++) {
+            if(!mChecked[i]) continue;
+            if(value.length() > 0) value.append(SEPARATOR);
+            value.append(entryValues[i]);
+        }
+        if(value.length() == 0) value.append(entryValues[0]); // 'Any Genre'
+
+        // goes through PreferencesFragment.onPreferenceChange, just like a ListPreference click would
+        if(listPreference.callChangeListener(value.toString())) {
+            listPreference.setValue(value.toString());
+        }
+    }
+
+
+    private void setChecked(ListView listView, int position, boolean checked) {
+        mChecked[position] = checked;
+        listView.setItemChecked(position, checked);
+    }
+
+
+    private boolean anyChecked() {
+        for (boolean checked : mChecked) {
+            if(checked) return true;
+        }
+        return false;
+    }
+
+}
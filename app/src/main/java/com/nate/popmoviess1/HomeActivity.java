@@ -2,6 +2,8 @@ package com.nate.popmoviess1;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.support.v4.app.Fragment;
@@ -22,6 +24,8 @@ public class HomeActivity extends SingleFragmentActivity
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
     private static final int MOVIE_FILTER_CHANGED_INTENT_REQUEST_CODE = 1;
 
+    private PosterViewPool mPosterViewPool; // shared by every MovieGridFragment this activity hosts
+
     // return a reference to this Activities layout.. the ref is in a resource qualified folder,
     // so Android will pick the correct ref depending on the device
     protected int getLayoutResourceId() { return R.layout.activity_home_ref; }
@@ -36,6 +40,8 @@ public class HomeActivity extends SingleFragmentActivity
      * MovieGridFragment will be returned that will display movies from whatever is currently in
      * MovieTheater's Movie list.  If there is no intent extra found, the returned fragment will
      * assume an API call should be made, which will happen every time this app is started from dead.
+     * That call does not hold up the grid though, the list MovieTheater restored from the database is
+     * drawn first and only the movies that changed are updated when the call comes back.
      *
      * @return a new MovieGridFragment, the contents of which will depend on the intent extra that
      * that started this Activity
@@ -75,6 +81,36 @@ public class HomeActivity extends SingleFragmentActivity
             }
         }
 
+        // keep the movie list fresh in the background, re-setting the alarm every launch is harmless
+        MovieRefreshService.setServiceAlarm(this, true);
+
+        // start loading the search index now, so it is ready by the time the user taps search
+        MovieSearchIndex.get(this);
+
+        // inflate the first screen of posters while the movie fetch is still on the wire
+        getPosterViewPool().preInflate(this);
+
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if(mPosterViewPool != null) mPosterViewPool.cancelPreInflate();
+    }
+
+
+    /**
+     * Returns the pool of poster views that every MovieGridFragment in this activity shares, so
+     * replacing the grid after a movie filter change reuses the old grid's views.
+     *
+     * @return this activity's PosterViewPool, created the first time it's asked for
+     */
+    @Override
+    public PosterViewPool getPosterViewPool() {
+        // fragments restored after rotation can ask for it before onCreate gets this far
+        if(mPosterViewPool == null) mPosterViewPool = new PosterViewPool(this);
+        return mPosterViewPool;
     }
 
     /**
@@ -84,8 +120,8 @@ public class HomeActivity extends SingleFragmentActivity
      * @see MovieDetailPagerActivity
      */
     @Override
-    public void onMovieSelected(Movie movie) {
-        Intent intent = MovieDetailPagerActivity.newIntent(this, movie.id);
+    public void onMovieSelected(Movie movie, boolean inSearchResults) {
+        Intent intent = MovieDetailPagerActivity.newIntent(this, movie.id, inSearchResults);
         startActivity(intent);
     }
 
@@ -163,6 +199,54 @@ public class HomeActivity extends SingleFragmentActivity
     }
 
 
+    /**
+     * Sends every keystroke in the search box to MovieGridFragment, which searches locally and shows
+     * the results right away.  Closing the search puts the grid back the way it was.
+     *
+     * @param searchItem the search menu item, its action view is a SearchView
+     * @see MovieGridFragment#setSearchQuery(String)
+     */
+    private void setUpSearchView(MenuItem searchItem) {
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.action_search_hint));
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                setGridSearchQuery(query);
+                return false; // let the SearchView hide the keyboard
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setGridSearchQuery(newText);
+                return true;
+            }
+        });
+
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                setGridSearchQuery(null);
+                return true;
+            }
+        });
+    }
+
+
+    private void setGridSearchQuery(String query) {
+        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.fragment_container);
+        if(fragment instanceof MovieGridFragment && fragment.getView() != null) {
+            ((MovieGridFragment) fragment).setSearchQuery(query);
+        }
+    }
+
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         super.onCreateOptionsMenu(menu);
@@ -170,6 +254,10 @@ public class HomeActivity extends SingleFragmentActivity
         // show the 'About App' menu item
         menu.findItem(R.id.action_about_app).setVisible(true);
 
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        searchItem.setVisible(true);
+        setUpSearchView(searchItem);
+
         if(findViewById(R.id.container_second_pane) != null) { // app is in dual pane mode
             // do not show the movie filters menu item because it's already visible in second pane..
             menu.findItem(R.id.action_movie_filters).setVisible(false);
@@ -0,0 +1,97 @@
+package com.nate.popmoviess1;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.Map;
+
+/**
+ * Picasso's memory cache for posters and backdrops.  It is the same size and the same LRU as the
+ * cache Picasso builds for itself, about 1/7 of the app's heap, but Picasso's own cache can only be
+ * emptied all at once.  This one can also be trimmed down to a fraction of its size, so MemoryGovernor
+ * can give memory back in steps and keep the posters most recently on screen.
+ *
+ * <p>
+ * Trimming does not shrink the cache for good, it only evicts down to the fraction right then.  Once
+ * the user is back and scrolling, it fills up to its full size again.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MemoryGovernor
+ */
+final class ImageMemoryCache implements Cache {
+
+    private static final int HEAP_FRACTION_DIVISOR = 7; // same as Picasso's default, about 15% of the heap
+
+    private final LruCache<String, Bitmap> mCache;
+
+
+    ImageMemoryCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / HEAP_FRACTION_DIVISOR;
+
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight(); // getByteCount is API 12
+            }
+        };
+    }
+
+
+    @Override
+    public Bitmap get(String key) {
+        if(key == null) throw new NullPointerException("key == null");
+        return mCache.get(key);
+    }
+
+
+    @Override
+    public void set(String key, Bitmap bitmap) {
+        if(key == null || bitmap == null) throw new NullPointerException("key == null || bitmap == null");
+        mCache.put(key, bitmap);
+    }
+
+
+    @Override
+    public int size() { return mCache.size(); }
+
+    @Override
+    public int maxSize() { return mCache.maxSize(); }
+
+    @Override
+    public void clear() { mCache.evictAll(); }
+
+
+    // Picasso's keys are the uri, then a newline, then the transformations, see Picasso's own LruCache
+    @Override
+    public void clearKeyUri(String uri) {
+        int length = uri.length();
+        for (Map.Entry<String, Bitmap> entry : mCache.snapshot().entrySet()) {
+            String key = entry.getKey();
+            if(key.startsWith(uri) && key.length() > length && key.charAt(length) == '\n') {
+                mCache.remove(key);
+            }
+        }
+    }
+
+
+    /**
+     * Evicts the least recently used images until the cache is at most fraction of its full size.
+     *
+     * @param fraction 0 to 1, 0 empties the cache
+     * @return the bytes given back
+     */
+    int trimToFraction(float fraction) {
+        int before = mCache.size();
+        if(fraction <= 0) mCache.evictAll();
+        else mCache.trimToSize((int) (mCache.maxSize() * fraction));
+        return before - mCache.size();
+    }
+
+
+}
@@ -0,0 +1,101 @@
+package com.nate.popmoviess1;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads and writes one kind of object as json, field by field, with a JsonReader or JsonWriter.
+ * Every model that comes from themoviedb has one: Movie.JSON_CODEC, MovieDetail.JSON_CODEC,
+ * MovieTheater.Genre.JSON_CODEC and MovieTheater.Certification.JSON_CODEC.
+ *
+ * <p>
+ * They are written by hand instead of letting Gson work each class out by reflection.  Gson has to
+ * reflect over a class the first time it sees it, which was a noticeable chunk of the first fetch
+ * after a cold start, and genres and certifications were parsed a third way again, by building a
+ * whole org.json tree first.  Now everything is parsed the same way, straight off the stream, and
+ * any field themoviedb adds that the app does not know about is skipped without being looked at.
+ * </p>
+ *
+ * <p>
+ * A codec reads null json values as the field's default, the same as Gson did, so a movie with a
+ * null overview or vote_average parses fine.
+ * </p>
+ *
+ * @author Nathan Merris
+ */
+abstract class JsonCodec<T> {
+
+    /**
+     * @param reader positioned at the start of the object
+     * @return the object, never null
+     * @throws IOException if the json is malformed
+     */
+    abstract T read(JsonReader reader) throws IOException;
+
+    /**
+     * @param writer where the object should go next
+     * @param value the object to write, never null
+     */
+    abstract void write(JsonWriter writer, T value) throws IOException;
+
+
+    /**
+     * Reads a json array of these objects.
+     *
+     * @param reader positioned at the start of the array
+     * @param into the list to add every object to
+     */
+    void readArray(JsonReader reader, List<T> into) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) into.add(read(reader));
+        reader.endArray();
+    }
+
+
+    void writeArray(JsonWriter writer, Iterable<T> values) throws IOException {
+        writer.beginArray();
+        for (T value : values) write(writer, value);
+        writer.endArray();
+    }
+
+
+    // the helpers below turn a json null into a default, JsonReader throws on null otherwise
+
+    static String nextString(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    static int nextInt(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt(); // takes a quoted number too, themoviedb sends cert order as "1"
+    }
+
+    static float nextFloat(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return (float) reader.nextDouble();
+    }
+
+    static boolean nextBoolean(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        return reader.nextBoolean();
+    }
+
+
+}
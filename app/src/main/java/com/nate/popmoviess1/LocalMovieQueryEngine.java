@@ -0,0 +1,145 @@
+package com.nate.popmoviess1;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers the same movie filters that /discover/movie does, but only over the movies already stored
+ * on the device, so the grid can show something the moment the filters change instead of waiting
+ * on the network.  The network result always replaces whatever this came up with.
+ *
+ * <p>
+ * There is a BitSet per genre, per release year and per certification, with one bit per stored
+ * movie.  A set of filters is just those sets ANDed together (and ORed within a filter that allows
+ * several values, like two genres or a range of years), so the cost depends on how many movies are
+ * stored, not on how many filters there are.  The vote count minimum is checked the same way with
+ * one more BitSet per minimum, there are only ever two of them.
+ * </p>
+ *
+ * <p>
+ * Discover results do not say what a movie is rated, so the certification sets are built from the
+ * queries the movies came back from: a movie that was in the results for 'PG-13' is PG-13.  Movies
+ * that were only ever seen with 'Any Rating' selected are never matched by a specific rating.
+ * </p>
+ *
+ * <p>
+ * An engine never changes after it is built, MovieTheater builds a new one when its stored movies
+ * change, so any thread can query it.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieTheater#queryLocalMovies(MovieQuery, int)
+ */
+final class LocalMovieQueryEngine {
+
+    private final List<Movie> mMovies; // bit number -> Movie
+    private final Map<Integer, BitSet> mByGenre = new HashMap<>();
+    private final Map<Integer, BitSet> mByYear = new HashMap<>();
+    private final Map<String, BitSet> mByCert = new HashMap<>();
+    private final Map<Integer, BitSet> mByMinVoteCount = new HashMap<>(); // built as queries ask for them
+
+
+    /**
+     * Indexes movies.
+     *
+     * @param movies every stored movie, each id only once
+     * @param certsById the certification each movie is known to have, movies without one are left out
+     */
+    LocalMovieQueryEngine(List<Movie> movies, Map<Integer, String> certsById) {
+        mMovies = new ArrayList<>(movies);
+
+        for (int bit = 0; bit < mMovies.size(); bit++) {
+            Movie movie = mMovies.get(bit);
+
+            for (Integer genreId : movie.genre_ids) {
+                bitsFor(mByGenre, genreId).set(bit);
+            }
+
+            int year = movie.getReleaseYear();
+            if(year != -1) bitsFor(mByYear, year).set(bit);
+
+            String cert = certsById.get(movie.id);
+            if(cert != null) bitsFor(mByCert, cert).set(bit);
+        }
+    }
+
+
+    int size() { return mMovies.size(); }
+
+
+    /**
+     * Finds the stored movies that match filters.
+     *
+     * @param filters the movie filters to match
+     * @param limit the most movies to return
+     * @return the matches, sorted the way filters.sortBy asks when the movies have that field, and
+     * most popular first otherwise
+     */
+    List<Movie> query(MovieQuery filters, int limit) {
+        BitSet matches = new BitSet(mMovies.size());
+        matches.set(0, mMovies.size());
+
+        if(!filters.anyCert) {
+            matches.and(bitsOrEmpty(mByCert.get(filters.cert)));
+        }
+
+        if(filters.genreIds.length > 0) {
+            BitSet anyGenre = new BitSet();
+            for (int genreId : filters.genreIds) anyGenre.or(bitsOrEmpty(mByGenre.get(genreId)));
+            matches.and(anyGenre);
+        }
+
+        if(filters.querySpecificYear) {
+            BitSet anyYear = new BitSet(); // stays empty if the year could not be parsed, same as themoviedb
+            for (MovieQuery.YearRange range : filters.years) {
+                for (int year = range.from; year <= range.to; year++) anyYear.or(bitsOrEmpty(mByYear.get(year)));
+            }
+            matches.and(anyYear);
+        }
+
+        matches.and(minVoteCountBits(filters.minVoteCount));
+
+        List<Movie> results = new ArrayList<>(matches.cardinality());
+        for (int bit = matches.nextSetBit(0); bit >= 0; bit = matches.nextSetBit(bit + 1)) {
+            results.add(mMovies.get(bit));
+        }
+
+        Comparator<Movie> order = MovieListMerger.comparatorFor(filters.sortBy);
+        Collections.sort(results, order != null ? order : MovieListMerger.comparatorFor("popularity.desc"));
+
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+
+    // only ever called with 15 or 20, so at most two of these are ever built
+    private synchronized BitSet minVoteCountBits(int minVoteCount) {
+        BitSet bits = mByMinVoteCount.get(minVoteCount);
+        if(bits == null) {
+            bits = new BitSet(mMovies.size());
+            for (int bit = 0; bit < mMovies.size(); bit++) {
+                if(mMovies.get(bit).vote_count >= minVoteCount) bits.set(bit);
+            }
+            mByMinVoteCount.put(minVoteCount, bits);
+        }
+        return bits;
+    }
+
+
+    private static <K> BitSet bitsFor(Map<K, BitSet> index, K key) {
+        BitSet bits = index.get(key);
+        if(bits == null) {
+            bits = new BitSet();
+            index.put(key, bits);
+        }
+        return bits;
+    }
+
+    private static BitSet bitsOrEmpty(BitSet bits) { return bits != null ? bits : new BitSet(); }
+
+
+}
@@ -0,0 +1,140 @@
+package com.nate.popmoviess1;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * The one place that decides what to give back when Android says memory is getting tight.
+ * PopMoviesApplication hands it every onTrimMemory and onLowMemory, and it turns the trim level
+ * into a step, and each step frees more than the one before:
+ *
+ * <ul>
+ *     <li>STEP_LIGHT, the app went to the background or the device is starting to run low: the image
+ *     cache is trimmed to half, the posters used most recently are kept.</li>
+ *     <li>STEP_MODERATE: the image cache is trimmed to a quarter, MovieDetailService keeps only the
+ *     details around the last page the user looked at, and MovieTheater lets go of everything it can
+ *     rebuild from the database.</li>
+ *     <li>STEP_SEVERE, the process is next in line to be killed, or the device is out of memory: the
+ *     image cache and the detail cache are emptied.</li>
+ * </ul>
+ *
+ * <p>
+ * Every step also has a heap target, a fraction of the most heap this app can have.  After a trim the
+ * heap in use is compared to the target and logged, and the last result is kept so it can be checked
+ * from a test or a debugger with getLastTrimUsedBytes and getLastTrimTargetBytes.  The heap in use is
+ * measured without forcing a GC, so right after a trim it still counts some of what was just freed.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see PopMoviesApplication
+ */
+public class MemoryGovernor {
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+
+    public static final int STEP_NONE = 0;
+    public static final int STEP_LIGHT = 1;
+    public static final int STEP_MODERATE = 2;
+    public static final int STEP_SEVERE = 3;
+
+    // per step: how much of the image cache to keep, and the most of the max heap that should be in use after
+    private static final float[] IMAGE_CACHE_FRACTIONS = {1f, 0.5f, 0.25f, 0f};
+    private static final float[] HEAP_TARGET_FRACTIONS = {1f, 0.6f, 0.45f, 0.3f};
+
+    private static final int DETAILS_TO_KEEP_MODERATE = 10; // a few pages either side of the last one seen
+
+    private final ImageMemoryCache mImageCache;
+
+    private volatile int mLastTrimStep = STEP_NONE;
+    private volatile long mLastTrimUsedBytes;
+    private volatile long mLastTrimTargetBytes;
+
+
+    /**
+     * @param context the application context
+     */
+    MemoryGovernor(Context context) {
+        mImageCache = new ImageMemoryCache(context);
+    }
+
+
+    /**
+     * @return the memory cache Picasso should be built with, so it can be trimmed in steps
+     */
+    ImageMemoryCache getImageCache() { return mImageCache; }
+
+
+    /**
+     * Turns a ComponentCallbacks2 trim level into one of the steps above.
+     *
+     * @param level the level passed to onTrimMemory
+     * @return STEP_NONE to STEP_SEVERE
+     */
+    static int stepFor(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) return STEP_SEVERE;
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) return STEP_MODERATE;
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return STEP_LIGHT;
+
+        // below UI_HIDDEN are the levels for when the app is still in the foreground
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) return STEP_SEVERE;
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return STEP_MODERATE;
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) return STEP_LIGHT;
+        return STEP_NONE;
+    }
+
+
+    /**
+     * @param step one of the steps above
+     * @return the most heap, in bytes, this app should be using once that step has been taken
+     */
+    static long heapTargetBytes(int step) {
+        return (long) (Runtime.getRuntime().maxMemory() * HEAP_TARGET_FRACTIONS[step]);
+    }
+
+
+    public void onTrimMemory(int level) {
+        trim(stepFor(level), "onTrimMemory level " + level);
+    }
+
+
+    public void onLowMemory() {
+        trim(STEP_SEVERE, "onLowMemory");
+    }
+
+
+    private void trim(int step, String reason) {
+        if(step == STEP_NONE) return;
+
+        int imageBytesFreed = mImageCache.trimToFraction(IMAGE_CACHE_FRACTIONS[step]);
+
+        // only the singletons that already exist, there is no point creating one just to empty it
+        MovieDetailService detailService = MovieDetailService.peek();
+        if(detailService != null && step >= STEP_MODERATE) {
+            detailService.trimCache(step == STEP_SEVERE ? 0 : DETAILS_TO_KEEP_MODERATE);
+        }
+        MovieTheater movieTheater = MovieTheater.peek();
+        if(movieTheater != null && step >= STEP_MODERATE) {
+            movieTheater.releaseRebuildableCaches();
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+        long targetBytes = heapTargetBytes(step);
+        mLastTrimStep = step;
+        mLastTrimUsedBytes = usedBytes;
+        mLastTrimTargetBytes = targetBytes;
+
+        Log.i(LOGTAG, "in trim, " + reason + ", step " + step + ": freed " + imageBytesFreed / 1024
+                + "KB of images, heap in use " + usedBytes / 1024 + "KB, target " + targetBytes / 1024
+                + "KB" + (usedBytes <= targetBytes ? "" : ", still OVER target"));
+    }
+
+
+    public int getLastTrimStep() { return mLastTrimStep; }
+
+    public long getLastTrimUsedBytes() { return mLastTrimUsedBytes; }
+
+    public long getLastTrimTargetBytes() { return mLastTrimTargetBytes; }
+
+
+}
@@ -1,16 +1,23 @@
 package com.nate.popmoviess1;
 
-import org.json.JSONObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Contains relevant data to contain a single movie's metadata.
- * The members must exactly match themoviedb API json return data because
- * this app uses Gson to parse it.
+ * The members are named exactly like themoviedb API json return data, JSON_CODEC reads and
+ * writes them by those names.
  *
  * @author Nathan Merris
- * @see TheMovieDbFetcher#parseMovies(List, JSONObject)
+ * @see TheMovieDbFetcher#parseMovies(List, JsonReader)
+ * @see JsonCodec
  */
 @SuppressWarnings("unused")
 public class Movie {
@@ -32,6 +39,13 @@ public class Movie {
     public boolean video;               // does the movie have a video that can be linked to?
     public float vote_average;
 
+    public static final int NO_RELEASE_DATE = Integer.MIN_VALUE; // getReleaseEpochDay for a movie with no usable date
+    private static final int NOT_PARSED_YET = Integer.MAX_VALUE;
+
+    // release_date as days since 1970-01-01, never part of the json, filled in by
+    // parseReleaseDate when the movie comes in, so nothing ever parses the date String again
+    private transient int release_epoch_day = NOT_PARSED_YET;
+
 
     // you can actually query themoviedb 'configuration' endpoint to get lists of things like
     // available poster and backdrop sizes, changes, etc
@@ -43,6 +57,88 @@ public class Movie {
         return url;
     }
 
+    /**
+     * Turns release_date ('yyyy-MM-dd') into days since 1970-01-01.  Called once, when a Movie is
+     * parsed from themoviedb or read back from storage.  It is plain integer math, no Calendar,
+     * no SimpleDateFormat and no time zones, so it costs next to nothing.
+     */
+    void parseReleaseDate() {
+        release_epoch_day = epochDayOf(release_date);
+    }
+
+
+    /**
+     * Use to sort or display by release date without parsing anything.
+     *
+     * @return the release date as days since 1970-01-01, or NO_RELEASE_DATE
+     * @see ReleaseDateFormatter#format(int)
+     */
+    public int getReleaseEpochDay() {
+        int epochDay = release_epoch_day;
+        if(epochDay == NOT_PARSED_YET) { // not ingested through the usual paths
+            epochDay = epochDayOf(release_date);
+            release_epoch_day = epochDay;
+        }
+        return epochDay;
+    }
+
+
+    /**
+     * @return the year the movie was released, or -1 if it has no usable release date
+     */
+    public int getReleaseYear() {
+        int epochDay = getReleaseEpochDay();
+        if(epochDay == NO_RELEASE_DATE) return -1;
+
+        // the reverse of epochDayOf
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthPrime = (5 * dayOfYear + 2) / 153;
+        int month = monthPrime < 10 ? monthPrime + 3 : monthPrime - 9;
+        return yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    }
+
+
+    // 'yyyy-MM-dd' to days since 1970-01-01, see http://howardhinnant.github.io/date_algorithms.html
+    private static int epochDayOf(String date) {
+        if(date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return NO_RELEASE_DATE;
+        }
+
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if(year < 0 || month < 1 || month > 12 || day < 1 || day > 31) return NO_RELEASE_DATE;
+
+        year -= (month <= 2) ? 1 : 0;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // returns -1 if there is anything but digits between start and end
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+
+    // the raw image paths, only for storing a Movie somewhere and getting it back, use the Url methods to display
+    String getPosterPath() { return poster_path; }
+    void setPosterPath(String posterPath) { poster_path = posterPath; }
+    String getBackdropPath() { return backdrop_path; }
+    void setBackdropPath(String backdropPath) { backdrop_path = backdropPath; }
+
     public String getBackdropUrl() {
         // w780 is the size, it's second from smallest as of 3.19.16
         String url = "https://image.tmdb.org/t/p/" + "w780/" + backdrop_path;
@@ -50,4 +146,164 @@ public class Movie {
     }
 
 
+    /**
+     * Compares everything that goes in the movies table, so MovieTheater can skip writing a movie
+     * that has not changed since it was last stored.  Genres are not included, they have their own table.
+     *
+     * @param other a Movie with the same id
+     * @return true if storing this Movie would write the exact same row other did
+     */
+    boolean hasSameStoredFields(Movie other) {
+        return id == other.id
+                && Float.compare(popularity, other.popularity) == 0
+                && Float.compare(vote_average, other.vote_average) == 0
+                && vote_count == other.vote_count
+                && adult == other.adult
+                && video == other.video
+                && equal(title, other.title)
+                && equal(original_title, other.original_title)
+                && equal(original_language, other.original_language)
+                && equal(overview, other.overview)
+                && equal(release_date, other.release_date)
+                && equal(poster_path, other.poster_path)
+                && equal(backdrop_path, other.backdrop_path);
+    }
+
+
+    // TextUtils.equals, without needing Android to run, so this can be unit tested
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+
+    /**
+     * Writes this Movie in a compact binary form, much smaller than the json it came from.  Used by
+     * MovieSearchIndex to persist every movie it has indexed.
+     *
+     * @param out where to write
+     * @see Movie#readFrom(DataInput)
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(id);
+        writeNullableString(out, title);
+        writeNullableString(out, original_title);
+        writeNullableString(out, original_language);
+        writeNullableString(out, overview);
+        writeNullableString(out, release_date);
+        writeNullableString(out, poster_path);
+        writeNullableString(out, backdrop_path);
+        out.writeFloat(popularity);
+        out.writeFloat(vote_average);
+        out.writeInt(vote_count);
+        out.writeBoolean(adult);
+        out.writeBoolean(video);
+        out.writeShort(genre_ids.length);
+        for (Integer genreId : genre_ids) out.writeInt(genreId);
+    }
+
+
+    // reads a Movie written by writeTo
+    static Movie readFrom(DataInput in) throws IOException {
+        Movie movie = new Movie();
+        movie.id = in.readInt();
+        movie.title = readNullableString(in);
+        movie.original_title = readNullableString(in);
+        movie.original_language = readNullableString(in);
+        movie.overview = readNullableString(in);
+        movie.release_date = readNullableString(in);
+        movie.poster_path = readNullableString(in);
+        movie.backdrop_path = readNullableString(in);
+        movie.popularity = in.readFloat();
+        movie.vote_average = in.readFloat();
+        movie.vote_count = in.readInt();
+        movie.adult = in.readBoolean();
+        movie.video = in.readBoolean();
+        movie.genre_ids = new Integer[in.readShort()];
+        for (int i = 0; i < movie.genre_ids.length; i++) movie.genre_ids[i] = in.readInt();
+        movie.parseReleaseDate();
+        return movie;
+    }
+
+
+    /**
+     * Reads and writes a Movie as a single object from themoviedb's discover 'results' array.  The
+     * movie list older versions of this app kept in sharedPrefs has the same shape.
+     */
+    static final JsonCodec<Movie> JSON_CODEC = new JsonCodec<Movie>() {
+        @Override
+        Movie read(JsonReader reader) throws IOException {
+            Movie movie = new Movie();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id": movie.id = nextInt(reader); break;
+                    case "title": movie.title = nextString(reader); break;
+                    case "original_title": movie.original_title = nextString(reader); break;
+                    case "original_language": movie.original_language = nextString(reader); break;
+                    case "overview": movie.overview = nextString(reader); break;
+                    case "release_date": movie.release_date = nextString(reader); break;
+                    case "poster_path": movie.poster_path = nextString(reader); break;
+                    case "backdrop_path": movie.backdrop_path = nextString(reader); break;
+                    case "popularity": movie.popularity = nextFloat(reader); break;
+                    case "vote_average": movie.vote_average = nextFloat(reader); break;
+                    case "vote_count": movie.vote_count = nextInt(reader); break;
+                    case "adult": movie.adult = nextBoolean(reader); break;
+                    case "video": movie.video = nextBoolean(reader); break;
+                    case "genre_ids": movie.genre_ids = readGenreIds(reader); break;
+                    default: reader.skipValue(); // everything else themoviedb sends is not used
+                }
+            }
+            reader.endObject();
+            movie.parseReleaseDate(); // once, here, instead of every time it's displayed or sorted
+            return movie;
+        }
+
+        @Override
+        void write(JsonWriter writer, Movie movie) throws IOException {
+            writer.beginObject();
+            writer.name("id").value(movie.id);
+            writer.name("title").value(movie.title);
+            writer.name("original_title").value(movie.original_title);
+            writer.name("original_language").value(movie.original_language);
+            writer.name("overview").value(movie.overview);
+            writer.name("release_date").value(movie.release_date);
+            writer.name("poster_path").value(movie.poster_path);
+            writer.name("backdrop_path").value(movie.backdrop_path);
+            // boxed, so they go through value(Number), which writes Float.toString: 7.3f is written as
+            // 7.3, value(double) would widen it to 7.300000190734863 and every round trip would show it
+            writer.name("popularity").value(Float.valueOf(movie.popularity));
+            writer.name("vote_average").value(Float.valueOf(movie.vote_average));
+            writer.name("vote_count").value(movie.vote_count);
+            writer.name("adult").value(movie.adult);
+            writer.name("video").value(movie.video);
+            writer.name("genre_ids").beginArray();
+            for (Integer genreId : movie.genre_ids) writer.value(genreId);
+            writer.endArray();
+            writer.endObject();
+        }
+
+        private Integer[] readGenreIds(JsonReader reader) throws IOException {
+            List<Integer> genreIds = new ArrayList<>();
+            if(reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return new Integer[]{};
+            }
+            reader.beginArray();
+            while (reader.hasNext()) genreIds.add(nextInt(reader));
+            reader.endArray();
+            return genreIds.toArray(new Integer[genreIds.size()]);
+        }
+    };
+
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) out.writeUTF(value);
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+
 }
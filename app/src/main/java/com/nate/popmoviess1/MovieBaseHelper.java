@@ -0,0 +1,104 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.nate.popmoviess1.MovieDbSchema.CertificationsTable;
+import com.nate.popmoviess1.MovieDbSchema.GenresTable;
+import com.nate.popmoviess1.MovieDbSchema.MovieGenresTable;
+import com.nate.popmoviess1.MovieDbSchema.MoviesTable;
+import com.nate.popmoviess1.MovieDbSchema.QueryKeysTable;
+import com.nate.popmoviess1.MovieDbSchema.QueryResultsTable;
+
+/**
+ * Creates the movie database the first time it is opened.  The indexes are on the columns the
+ * movie filters sort and filter by, so a local query never has to scan the whole movies table.
+ * The movie id needs no index of its own, it is the primary key.
+ *
+ * @author Nathan Merris
+ * @see MovieDbSchema
+ */
+class MovieBaseHelper extends SQLiteOpenHelper {
+    private static final int VERSION = 2; // 2 added query_keys
+    private static final String DATABASE_NAME = "movieBase.db";
+
+
+    MovieBaseHelper(Context context) {
+        super(context, DATABASE_NAME, null, VERSION);
+    }
+
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("create table " + MoviesTable.NAME + "(" +
+                MoviesTable.Cols.ID + " integer primary key, " +
+                MoviesTable.Cols.TITLE + " text, " +
+                MoviesTable.Cols.ORIGINAL_TITLE + " text, " +
+                MoviesTable.Cols.ORIGINAL_LANGUAGE + " text, " +
+                MoviesTable.Cols.OVERVIEW + " text, " +
+                MoviesTable.Cols.RELEASE_DATE + " text, " +
+                MoviesTable.Cols.POSTER_PATH + " text, " +
+                MoviesTable.Cols.BACKDROP_PATH + " text, " +
+                MoviesTable.Cols.POPULARITY + " real, " +
+                MoviesTable.Cols.VOTE_AVERAGE + " real, " +
+                MoviesTable.Cols.VOTE_COUNT + " integer, " +
+                MoviesTable.Cols.ADULT + " integer, " +
+                MoviesTable.Cols.VIDEO + " integer)");
+
+        createIndex(db, MoviesTable.NAME, MoviesTable.Cols.POPULARITY);
+        createIndex(db, MoviesTable.NAME, MoviesTable.Cols.VOTE_AVERAGE);
+        createIndex(db, MoviesTable.NAME, MoviesTable.Cols.RELEASE_DATE);
+
+        db.execSQL("create table " + MovieGenresTable.NAME + "(" +
+                MovieGenresTable.Cols.MOVIE_ID + " integer not null, " +
+                MovieGenresTable.Cols.GENRE_ID + " integer not null, " +
+                "primary key (" + MovieGenresTable.Cols.MOVIE_ID + ", " + MovieGenresTable.Cols.GENRE_ID + "))");
+
+        // the primary key covers 'genres of a movie', this covers 'movies in a genre'
+        createIndex(db, MovieGenresTable.NAME, MovieGenresTable.Cols.GENRE_ID);
+
+        db.execSQL("create table " + GenresTable.NAME + "(" +
+                GenresTable.Cols.ID + " integer primary key, " +
+                GenresTable.Cols.NAME + " text, " +
+                GenresTable.Cols.POSITION + " integer)");
+
+        db.execSQL("create table " + CertificationsTable.NAME + "(" +
+                CertificationsTable.Cols.NAME + " text primary key, " +
+                CertificationsTable.Cols.MEANING + " text, " +
+                CertificationsTable.Cols.SORT_ORDER + " integer)");
+
+        db.execSQL("create table " + QueryResultsTable.NAME + "(" +
+                QueryResultsTable.Cols.FILTER_KEY + " text not null, " +
+                QueryResultsTable.Cols.POSITION + " integer not null, " +
+                QueryResultsTable.Cols.MOVIE_ID + " integer not null, " +
+                "primary key (" + QueryResultsTable.Cols.FILTER_KEY + ", " + QueryResultsTable.Cols.POSITION + "))");
+
+        createQueryKeysTable(db);
+    }
+
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if(oldVersion < 2) {
+            createQueryKeysTable(db);
+            // nobody knows when the stored queries were written, so their age starts now
+            db.execSQL("insert into " + QueryKeysTable.NAME + " select distinct " + QueryResultsTable.Cols.FILTER_KEY
+                    + ", " + System.currentTimeMillis() + " from " + QueryResultsTable.NAME);
+        }
+    }
+
+
+    private static void createQueryKeysTable(SQLiteDatabase db) {
+        db.execSQL("create table " + QueryKeysTable.NAME + "(" +
+                QueryKeysTable.Cols.FILTER_KEY + " text primary key, " +
+                QueryKeysTable.Cols.WRITTEN_AT + " integer not null)");
+    }
+
+
+    private static void createIndex(SQLiteDatabase db, String table, String column) {
+        db.execSQL("create index " + table + "_" + column + "_index on " + table + "(" + column + ")");
+    }
+
+
+}
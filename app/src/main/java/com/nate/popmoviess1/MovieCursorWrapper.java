@@ -0,0 +1,42 @@
+package com.nate.popmoviess1;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.nate.popmoviess1.MovieDbSchema.MoviesTable;
+
+/**
+ * Turns rows of the movies table back into Movie objects.  Genre ids live in their own table, so
+ * they are filled in separately by MovieTheater.
+ *
+ * @author Nathan Merris
+ * @see MovieDbSchema.MoviesTable
+ */
+class MovieCursorWrapper extends CursorWrapper {
+
+    MovieCursorWrapper(Cursor cursor) {
+        super(cursor);
+    }
+
+
+    Movie getMovie() {
+        Movie movie = new Movie();
+        movie.id = getInt(getColumnIndex(MoviesTable.Cols.ID));
+        movie.title = getString(getColumnIndex(MoviesTable.Cols.TITLE));
+        movie.original_title = getString(getColumnIndex(MoviesTable.Cols.ORIGINAL_TITLE));
+        movie.original_language = getString(getColumnIndex(MoviesTable.Cols.ORIGINAL_LANGUAGE));
+        movie.overview = getString(getColumnIndex(MoviesTable.Cols.OVERVIEW));
+        movie.release_date = getString(getColumnIndex(MoviesTable.Cols.RELEASE_DATE));
+        movie.setPosterPath(getString(getColumnIndex(MoviesTable.Cols.POSTER_PATH)));
+        movie.setBackdropPath(getString(getColumnIndex(MoviesTable.Cols.BACKDROP_PATH)));
+        movie.popularity = getFloat(getColumnIndex(MoviesTable.Cols.POPULARITY));
+        movie.vote_average = getFloat(getColumnIndex(MoviesTable.Cols.VOTE_AVERAGE));
+        movie.vote_count = getInt(getColumnIndex(MoviesTable.Cols.VOTE_COUNT));
+        movie.adult = getInt(getColumnIndex(MoviesTable.Cols.ADULT)) != 0;
+        movie.video = getInt(getColumnIndex(MoviesTable.Cols.VIDEO)) != 0;
+        movie.parseReleaseDate();
+        return movie;
+    }
+
+
+}
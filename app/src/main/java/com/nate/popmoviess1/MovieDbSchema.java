@@ -0,0 +1,96 @@
+package com.nate.popmoviess1;
+
+/**
+ * Table and column names for the SQLite database that MovieTheater stores everything in.  Layout
+ * borrowed from the CrimeDbSchema in Big Nerd Ranch Android Programming, 2nd ed.
+ *
+ * <p>
+ * Every movie is stored exactly once in MoviesTable no matter how many queries it showed up in.
+ * QueryResultsTable remembers which movies each set of movie filters returned and in what order,
+ * QueryKeysTable remembers when each of those was last written, so old ones can be dropped, and
+ * MovieGenresTable is the join between movies and their genre ids.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieBaseHelper
+ */
+final class MovieDbSchema {
+
+    private MovieDbSchema() {}
+
+
+    static final class MoviesTable {
+        static final String NAME = "movies";
+
+        static final class Cols {
+            static final String ID = "id"; // themoviedb id, also the primary key
+            static final String TITLE = "title";
+            static final String ORIGINAL_TITLE = "original_title";
+            static final String ORIGINAL_LANGUAGE = "original_language";
+            static final String OVERVIEW = "overview";
+            static final String RELEASE_DATE = "release_date"; // yyyy-MM-dd, sorts correctly as text
+            static final String POSTER_PATH = "poster_path";
+            static final String BACKDROP_PATH = "backdrop_path";
+            static final String POPULARITY = "popularity";
+            static final String VOTE_AVERAGE = "vote_average";
+            static final String VOTE_COUNT = "vote_count";
+            static final String ADULT = "adult";
+            static final String VIDEO = "video";
+        }
+    }
+
+
+    static final class MovieGenresTable {
+        static final String NAME = "movie_genres";
+
+        static final class Cols {
+            static final String MOVIE_ID = "movie_id";
+            static final String GENRE_ID = "genre_id";
+        }
+    }
+
+
+    static final class GenresTable {
+        static final String NAME = "genres";
+
+        static final class Cols {
+            static final String ID = "id"; // -1 is 'Any Genre'
+            static final String NAME = "name";
+            static final String POSITION = "position"; // order to show them in, same as themoviedb's
+        }
+    }
+
+
+    static final class CertificationsTable {
+        static final String NAME = "certifications";
+
+        static final class Cols {
+            static final String NAME = "name";
+            static final String MEANING = "meaning";
+            static final String SORT_ORDER = "sort_order";
+        }
+    }
+
+
+    static final class QueryResultsTable {
+        static final String NAME = "query_results";
+
+        static final class Cols {
+            static final String FILTER_KEY = "filter_key"; // MovieQuery key, '' for a list with no key
+            static final String POSITION = "position";
+            static final String MOVIE_ID = "movie_id";
+        }
+    }
+
+
+    static final class QueryKeysTable {
+        static final String NAME = "query_keys";
+
+        static final class Cols {
+            static final String FILTER_KEY = "filter_key"; // same as QueryResultsTable's, primary key
+            static final String WRITTEN_AT = "written_at"; // System.currentTimeMillis of the last write
+        }
+    }
+
+
+}
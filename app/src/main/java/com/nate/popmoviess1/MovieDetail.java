@@ -0,0 +1,209 @@
+package com.nate.popmoviess1;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contains the extra metadata for a single movie that themoviedb only returns from its
+ * '/movie/{id}' endpoint, things like runtime and genre names.  Videos and reviews come along in the
+ * same response because TheMovieDbFetcher asks for them with append_to_response.
+ * The members are named exactly like themoviedb API json return data, JSON_CODEC reads and
+ * writes them by those names.
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher#parseMovieDetail(JsonReader)
+ * @see MovieDetailService
+ */
+@SuppressWarnings("unused")
+public class MovieDetail {
+
+    public int id;                      // themoviedb movie ID number, same as Movie.id
+    public int runtime;                 // in minutes, themoviedb uses 0 when it doesn't know
+    public String tagline;
+    public MovieTheater.Genre[] genres = new MovieTheater.Genre[]{}; // id-name pairs, unlike Movie.genre_ids
+    public Videos videos = new Videos();    // only present because of append_to_response=videos
+    public Reviews reviews = new Reviews(); // only present because of append_to_response=reviews
+
+
+    // themoviedb wraps appended lists in an object with a 'results' array
+    public static class Videos {
+        public Video[] results = new Video[]{};
+    }
+
+    public static class Reviews {
+        public Review[] results = new Review[]{};
+    }
+
+    public static class Video {
+        public String key;  // the id to use with the site, for YouTube this is the 'v' param
+        public String name;
+        public String site; // almost always 'YouTube'
+        public String type; // 'Trailer', 'Teaser', 'Clip', etc
+    }
+
+    public static class Review {
+        public String author;
+        public String content;
+        public String url;
+    }
+
+
+    /**
+     * Use to get the genre names for this movie, ready to be displayed.
+     *
+     * @return genre names separated by commas, like 'Comedy, Family, Horror', empty if there are none
+     */
+    public String getGenreNames() {
+        StringBuilder names = new StringBuilder();
+        for (MovieTheater.Genre g : genres) {
+            if(names.length() > 0) names.append(", ");
+            names.append(g.name);
+        }
+        return names.toString();
+    }
+
+
+    static final JsonCodec<MovieDetail> JSON_CODEC = new JsonCodec<MovieDetail>() {
+        @Override
+        MovieDetail read(JsonReader reader) throws IOException {
+            MovieDetail detail = new MovieDetail();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id": detail.id = nextInt(reader); break;
+                    case "runtime": detail.runtime = nextInt(reader); break;
+                    case "tagline": detail.tagline = nextString(reader); break;
+                    case "genres":
+                        List<MovieTheater.Genre> genres = new ArrayList<>();
+                        if(readArrayOrNull(reader, MovieTheater.Genre.JSON_CODEC, genres)) {
+                            detail.genres = genres.toArray(new MovieTheater.Genre[genres.size()]);
+                        }
+                        break;
+                    case "videos":
+                        List<Video> videos = new ArrayList<>();
+                        if(readResults(reader, VIDEO_CODEC, videos)) {
+                            detail.videos.results = videos.toArray(new Video[videos.size()]);
+                        }
+                        break;
+                    case "reviews":
+                        List<Review> reviews = new ArrayList<>();
+                        if(readResults(reader, REVIEW_CODEC, reviews)) {
+                            detail.reviews.results = reviews.toArray(new Review[reviews.size()]);
+                        }
+                        break;
+                    default: reader.skipValue(); // budget, credits, etc are not used
+                }
+            }
+            reader.endObject();
+            return detail;
+        }
+
+        @Override
+        void write(JsonWriter writer, MovieDetail detail) throws IOException {
+            writer.beginObject();
+            writer.name("id").value(detail.id);
+            writer.name("runtime").value(detail.runtime);
+            writer.name("tagline").value(detail.tagline);
+            writer.name("genres");
+            MovieTheater.Genre.JSON_CODEC.writeArray(writer, Arrays.asList(detail.genres));
+            writer.name("videos").beginObject().name("results");
+            VIDEO_CODEC.writeArray(writer, Arrays.asList(detail.videos.results));
+            writer.endObject();
+            writer.name("reviews").beginObject().name("results");
+            REVIEW_CODEC.writeArray(writer, Arrays.asList(detail.reviews.results));
+            writer.endObject();
+            writer.endObject();
+        }
+
+        // reads one of themoviedb's appended lists, an object with a 'results' array in it
+        private <T> boolean readResults(JsonReader reader, JsonCodec<T> codec, List<T> into) throws IOException {
+            if(reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return false;
+            }
+            boolean found = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if(reader.nextName().equals("results")) found = readArrayOrNull(reader, codec, into);
+                else reader.skipValue();
+            }
+            reader.endObject();
+            return found;
+        }
+
+        private <T> boolean readArrayOrNull(JsonReader reader, JsonCodec<T> codec, List<T> into) throws IOException {
+            if(reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return false;
+            }
+            codec.readArray(reader, into);
+            return true;
+        }
+    };
+
+
+    private static final JsonCodec<Video> VIDEO_CODEC = new JsonCodec<Video>() {
+        @Override
+        Video read(JsonReader reader) throws IOException {
+            Video video = new Video();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "key": video.key = nextString(reader); break;
+                    case "name": video.name = nextString(reader); break;
+                    case "site": video.site = nextString(reader); break;
+                    case "type": video.type = nextString(reader); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return video;
+        }
+
+        @Override
+        void write(JsonWriter writer, Video video) throws IOException {
+            writer.beginObject();
+            writer.name("key").value(video.key);
+            writer.name("name").value(video.name);
+            writer.name("site").value(video.site);
+            writer.name("type").value(video.type);
+            writer.endObject();
+        }
+    };
+
+
+    private static final JsonCodec<Review> REVIEW_CODEC = new JsonCodec<Review>() {
+        @Override
+        Review read(JsonReader reader) throws IOException {
+            Review review = new Review();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "author": review.author = nextString(reader); break;
+                    case "content": review.content = nextString(reader); break;
+                    case "url": review.url = nextString(reader); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return review;
+        }
+
+        @Override
+        void write(JsonWriter writer, Review review) throws IOException {
+            writer.beginObject();
+            writer.name("author").value(review.author);
+            writer.name("content").value(review.content);
+            writer.name("url").value(review.url);
+            writer.endObject();
+        }
+    };
+
+
+}
@@ -11,29 +11,25 @@ import android.widget.TextView;
 
 import com.squareup.picasso.Picasso;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
 
 
 /**
  * Displays a movie detail screen containing interesting movie data.
- * Due the way I designed this app, it is currently not showing movie genre's, even though
- * I have both the genre id's attached to every movie and the movie genre id-name associations
- * stored in MovieTheater.  I plan on correcting that in stage 2.
+ * Genre names and runtime are not part of the discover payload, so they come from
+ * MovieDetailService, which usually already has them cached because MovieDetailPagerActivity
+ * prefetches the pages next to the current one.  If they are not cached yet, they are filled in
+ * as soon as they arrive.
  *
  * Movie backdrop images are loaded as needed by Picasso.
  *
  * <p>
- * For now it shows: the movie backdrop image, vote avg, release date, and plot synopsis
+ * For now it shows: the movie backdrop image, release date, genres, runtime, vote avg, and plot synopsis
  * </p>
  *
  * @author Nathan Merris
  */
-public class MovieDetailFragment extends Fragment {
+public class MovieDetailFragment extends Fragment
+        implements MovieDetailService.OnDetailLoadedListener {
 
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
 
@@ -46,6 +42,9 @@ public class MovieDetailFragment extends Fragment {
     private MovieTheater mMovieTheater;
     private Movie mMovie; // the specific movie thumbnail object that this fragment is working with
     private int mMovieId; // the id of the specific movie that this fragment is working with
+    private MovieDetailService mMovieDetailService;
+    private TextView mGenreNamesTxtView;
+    private TextView mRuntimeValueTxtView;
 
 
     public MovieDetailFragment() {
@@ -58,6 +57,7 @@ public class MovieDetailFragment extends Fragment {
         //Log.i(LOGTAG, "just entered onCreate()");
 
         mMovieTheater = MovieTheater.get(getActivity());
+        mMovieDetailService = MovieDetailService.get(getActivity());
 
         if(savedInstanceState == null) {
             // get the movie id from MovieDetailPagerActivity, which just performed a fragment
@@ -92,8 +92,15 @@ public class MovieDetailFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         //Log.i(LOGTAG, "just entered onCreateView()");
+        long createViewStart = FrameStats.startTimer(); // the pager makes these mid swipe
 
         View rootView = inflater.inflate(R.layout.fragment_movie_detail, container, false);
+        // a page restored for search results that did not survive the app being killed, the pager
+        // is about to drop it, see MovieDetailPagerActivity.  It still cost an inflate, so it is timed
+        if(mMovie == null) {
+            FrameStats.stopTimer(FrameStats.DETAIL_CREATE_VIEW, createViewStart);
+            return rootView;
+        }
 
         ImageView posterImgView = (ImageView) rootView.findViewById(R.id.fragment_movie_detail_poster_imageview);
 
@@ -109,59 +116,66 @@ public class MovieDetailFragment extends Fragment {
         TextView overviewContentTxtView = (TextView) rootView.findViewById(R.id.fragment_movie_detail_overview_content_textview);
 
         movieTitleTxtView.setText(mMovie.title);
-        releaseDateValueTxtView.setText(parseDate(mMovie.release_date));
+        int releaseEpochDay = mMovie.getReleaseEpochDay();
+        releaseDateValueTxtView.setText(releaseEpochDay == Movie.NO_RELEASE_DATE
+                ? getString(R.string.frag_movie_detail_invalid_release_date)
+                : ReleaseDateFormatter.format(releaseEpochDay));
 
 
-        // I'll get to this is stage two... need to have some kind of process initialize MovieTheater on app start,
-        // that way anything can call on it and it will be initialized
-/*
-        int numGenreIds = mMovie.genre_ids.length;
-        for(int i = 0; i < numGenreIds; i++) {
-            genreNamesTxtView.append(mMovieTheater.getGenreName(mMovie.genre_ids[i]));
+        mGenreNamesTxtView = (TextView) rootView.findViewById(R.id.fragment_movie_detail_genre_names_textview);
+        mRuntimeValueTxtView = (TextView) rootView.findViewById(R.id.fragment_movie_detail_runtime_value_textview);
 
-            if(i == numGenreIds)
-                continue;
-            genreNamesTxtView.append(", ");
+        // genres and runtime come from MovieDetailService, if they are not cached yet
+        // onDetailLoaded fills them in when they arrive
+        mMovieDetailService.addOnDetailLoadedListener(this);
+        MovieDetail detail = mMovieDetailService.getCachedDetail(mMovieId);
+        if(detail != null) {
+            bindDetail(detail);
+        }
+        else {
+            mMovieDetailService.requestDetail(mMovieId);
         }
-*/
-
 
         voteAvgValueTxtView.setText(String.valueOf(mMovie.vote_average));
         overviewContentTxtView.setText(mMovie.overview);
 
+        FrameStats.stopTimer(FrameStats.DETAIL_CREATE_VIEW, createViewStart);
         return rootView;
     }
 
 
 
-    /**
-     * Parses a date so it looks nice on screen.
-     *
-     * @param dateString the date to parse, format must be 'yyyy-mm-dd'
-     * @return the formated date, like July 4, 1776
-     */
-    private String parseDate(String dateString) {
-        try {
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            Date date = dateFormat.parse(dateString);
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mMovieDetailService.removeOnDetailLoadedListener(this);
+        mGenreNamesTxtView = null;
+        mRuntimeValueTxtView = null;
+    }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(date);
 
-            String month = calendar.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.US);
-            String year = String.valueOf(calendar.get(Calendar.YEAR));
-            String day = String.valueOf(calendar.get(Calendar.DAY_OF_MONTH));
+    @Override
+    public void onDetailLoaded(MovieDetail detail) {
+        if(detail.id == mMovieId && mGenreNamesTxtView != null) {
+            bindDetail(detail);
+        }
+    }
 
-            return month + " " + day + ", " + year;
 
-        } catch (ParseException e) {
-            Log.i(LOGTAG, "  dateFormat.parse error: " + e);
-            e.printStackTrace();
-            return "Invalid release date";
+    // fills in the parts of the screen that only MovieDetailService knows about
+    private void bindDetail(MovieDetail detail) {
+        mGenreNamesTxtView.setText(detail.getGenreNames());
+
+        if(detail.runtime > 0) {
+            mRuntimeValueTxtView.setText(getString(R.string.frag_movie_detail_runtime_value, detail.runtime));
         }
     }
 
 
+    // returns the themoviedb id of the movie this fragment is showing
+    public int getMovieId() { return getArguments().getInt(ARG_MOVIE_ID); }
+
+
     /**
      * Creates a new instance of a MovieDetailFragment, which requires a movie id to know
      * what movie details to show.
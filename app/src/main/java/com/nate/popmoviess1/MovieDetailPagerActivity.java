@@ -6,11 +6,14 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentStatePagerAdapter;
+import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.util.Log;
 import android.view.Menu;
+import android.view.ViewGroup;
 
-import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Hosting Activity for a movie detail screen.  A ViewPager is used to allow the user to swipe
@@ -19,22 +22,42 @@ import java.util.List;
  * memory.  Picasso is used to download movie backdrops in real time, which different and more
  * elaborate than the poster images used in MovieGridFragment.
  *
- * At this time, only <code>MovieTheater.getMovies</code> is safe to call here.  Genre and
- * Certification data are not safe to call because they are not persisted in MovieTheater.  That will
- * be corrected in stage 2.
+ * Genre and Certification lists are stored in the database along with the movies, so after
+ * Android kills the app, <code>MovieTheater.getGenres</code> and <code>.getCertifications</code>
+ * have them again as soon as MovieTheater has loaded, just like the movies.  They are never null,
+ * at worst empty, if nothing was ever fetched or the database could not be opened.
+ *
+ * <p>
+ * While visible, this Activity listens to MovieTheater so the pager picks up movies that are added
+ * or updated after it was created, instead of being stuck with the list it started with.
+ * Every time a page is selected, MovieDetailService is asked to fetch the details of the movies
+ * on either side, so they are usually cached before the user swipes to them.
+ * </p>
+ *
+ * <p>
+ * When it is started from a search result, the pager swipes through MovieTheater's search results
+ * instead, which never change, so there is nothing to listen for.  Search results are not kept
+ * when Android kills the app, if they are gone by the time this Activity is recreated, it goes back
+ * to the movie list.
+ * </p>
  *
  * @author Nathan Merris
  * @see MovieTheater#getMovie(int)
  */
-public class MovieDetailPagerActivity extends MenuActivity {
+public class MovieDetailPagerActivity extends MenuActivity
+        implements MovieTheater.OnMoviesChangedListener {
 
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
     private static final String EXTRA_MOVIE_ID = "com.nate.popmoviess1.movie_id";
+    private static final String EXTRA_IN_SEARCH_RESULTS = "com.nate.popmoviess1.in_search_results";
+    private static final int DETAIL_PREFETCH_RADIUS = 1; // how many pages on each side get their details fetched early
 
     private ViewPager mViewPager;
     private MovieTheater mMovieTheater;
-    private List<Movie> mMovies;
+    private MovieTheater.Snapshot mSnapshot; // the immutable movie list the pager is currently showing
+    private FragmentStatePagerAdapter mPagerAdapter;
     private int mMovieId;
+    private boolean mShowingSearchResults; // true if mSnapshot is MovieTheater's search results
 
 
     /**
@@ -43,54 +66,134 @@ public class MovieDetailPagerActivity extends MenuActivity {
      * the same movie id to keep track of movies that themoviedb does.
      *
      * @param movieId the moviedb id of the Movie to display
+     * @param inSearchResults true to swipe through MovieTheater.getSearchResults instead of the movie list
      * @return a fresh and delicious Intent, packed with movie id goodness
      */
-    public static Intent newIntent(Context packageContext, int movieId) {
+    public static Intent newIntent(Context packageContext, int movieId, boolean inSearchResults) {
         Intent intent = new Intent(packageContext, MovieDetailPagerActivity.class);
         intent.putExtra(EXTRA_MOVIE_ID, movieId);
+        intent.putExtra(EXTRA_IN_SEARCH_RESULTS, inSearchResults);
         return intent;
     }
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // the detail pages are restored in super.onCreate, and they need their movies, so if Android
+        // killed the app while it was in the background, wait for MovieTheater to load them again
+        if(savedInstanceState != null) MovieTheater.get(this).awaitLoaded();
         super.onCreate(savedInstanceState);
         //Log.i(LOGTAG, "just entered onCreate");
 
         setContentView(R.layout.activity_movie_detail_pager);
 
 
-        // can't call mMovieTheater.getGenres or .getCertifications yet as they may be null
+        // mMovieTheater.getGenres and .getCertifications are loaded by now too, but may still be empty
 
         mViewPager = (ViewPager) findViewById(R.id.activity_movie_detail_view_pager);
         mMovieTheater = MovieTheater.get(this);
-        mMovies = mMovieTheater.getMovies();
         mMovieId = getIntent().getIntExtra(EXTRA_MOVIE_ID, 0);
+        mShowingSearchResults = getIntent().getBooleanExtra(EXTRA_IN_SEARCH_RESULTS, false)
+                && mMovieTheater.getSearchResults().indexOf(mMovieId) != -1;
+        mSnapshot = mShowingSearchResults ? mMovieTheater.getSearchResults() : mMovieTheater.getSnapshot();
         FragmentManager fragmentManager = getSupportFragmentManager();
 
-        mViewPager.setAdapter(new FragmentStatePagerAdapter(fragmentManager) {
+        mPagerAdapter = new FragmentStatePagerAdapter(fragmentManager) {
 
             @Override
             public Fragment getItem(int position) {
-                Movie movie = mMovies.get(position);
+                Movie movie = mSnapshot.getMovies().get(position);
                 return MovieDetailFragment.newInstance(movie.id);
             }
 
             @Override
             public int getCount() {
-                return mMovies.size();
+                return mSnapshot.size();
             }
-        });
+
+            // the position each page was made for, FragmentStatePagerAdapter keeps saved page state
+            // by position, so a page can never just move to a new one
+            private final Map<Object, Integer> mPagePositions = new WeakHashMap<>();
+
+            @Override
+            public Object instantiateItem(ViewGroup container, int position) {
+                Object page = super.instantiateItem(container, position);
+                mPagePositions.put(page, position);
+                return page;
+            }
+
+            @Override
+            public void destroyItem(ViewGroup container, int position, Object object) {
+                mPagePositions.remove(object);
+                super.destroyItem(container, position, object);
+            }
+
+            // tells the ViewPager which existing pages can stay after notifyDataSetChanged: only the
+            // ones whose movie is still at the exact position the page was made for, everything else
+            // is rebuilt at its new position
+            @Override
+            public int getItemPosition(Object object) {
+                int movieId = ((MovieDetailFragment) object).getMovieId();
+                Integer pagePosition = mPagePositions.get(object);
+                int position = mSnapshot.indexOf(movieId);
+                return (pagePosition != null && position == pagePosition)
+                        ? PagerAdapter.POSITION_UNCHANGED : PagerAdapter.POSITION_NONE;
+            }
+        };
+        mViewPager.setAdapter(mPagerAdapter);
 
         // set the viewpager to start at the movieId of whatever was sent in the intent
         // that started this Activity (that would be MovieGridActivity)
-        for(int i = 0; i < mMovies.size(); i++) {
-            if(mMovies.get(i).id == mMovieId) { // cycle through the list of movies
-                mViewPager.setCurrentItem(i);
-                break;
+        int startPosition = mSnapshot.indexOf(mMovieId);
+        if(startPosition != -1) {
+            mViewPager.setCurrentItem(startPosition);
+        }
+
+        mViewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                MovieDetailService.get(MovieDetailPagerActivity.this)
+                        .prefetchAround(mSnapshot, position, DETAIL_PREFETCH_RADIUS);
             }
+        });
+        MovieDetailService.get(this).prefetchAround(mSnapshot, mViewPager.getCurrentItem(), DETAIL_PREFETCH_RADIUS);
+        FrameStats.trackPaging(mViewPager); // does nothing unless FrameStats is on
+
+    }
+
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if(mShowingSearchResults) return; // they never change
+
+        mMovieTheater.addOnMoviesChangedListener(this);
+
+        if(mSnapshot.getVersion() != mMovieTheater.getSnapshot().getVersion()) {
+            mSnapshot = mMovieTheater.getSnapshot();
+            mPagerAdapter.notifyDataSetChanged();
         }
+    }
+
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mMovieTheater.removeOnMoviesChangedListener(this);
+    }
+
+
+    /**
+     * Keeps the pager in step with MovieTheater.  Pages whose movie is still at the same position
+     * stay as they are, the rest are rebuilt, see getItemPosition.
+     *
+     * @param event describes what changed in MovieTheater
+     */
+    @Override
+    public void onMoviesChanged(MovieTheater.MoviesChangedEvent event) {
+        boolean inStep = mSnapshot.getVersion() == event.getPreviousVersion();
+        mSnapshot = inStep ? event.getSnapshot() : mMovieTheater.getSnapshot();
+        mPagerAdapter.notifyDataSetChanged();
     }
 
 
@@ -0,0 +1,207 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A singleton that fetches and caches MovieDetail objects, so MovieDetailFragment can show things
+ * like runtime and genre names without a round trip on every swipe.  Details are kept in a bounded
+ * LRU cache, and MovieDetailPagerActivity asks for the pages next to the current one ahead of time,
+ * so by the time the user swipes over, the details are usually already here.
+ *
+ * <p>
+ * At most MAX_CONCURRENT_FETCHES requests are ever on the wire at once.  When the user swipes past a
+ * movie before its prefetch even started, that prefetch is cancelled so the queue never fills up
+ * with movies nobody is looking at anymore.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher#fetchMovieDetail(int)
+ */
+public class MovieDetailService {
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+
+    private static final int CACHE_SIZE = 60; // number of MovieDetails to keep, they are only a few KB each
+    private static final int MAX_CONCURRENT_FETCHES = 2; // be nice to themoviedb and the radio
+
+    private static volatile MovieDetailService sMovieDetailService;
+
+    private final Context mContext; // application context, used to build TheMovieDbFetchers
+    private final LruCache<Integer, MovieDetail> mCache = new LruCache<>(CACHE_SIZE);
+    private final Map<Integer, Future<?>> mInFlight = new HashMap<>(); // guarded by itself, movie id -> fetch
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    private final List<OnDetailLoadedListener> mListeners = new CopyOnWriteArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+
+    /**
+     * Implement to be told when a MovieDetail has been fetched.  Always called on the main thread.
+     */
+    public interface OnDetailLoadedListener {
+        void onDetailLoaded(MovieDetail detail);
+    }
+
+
+    private MovieDetailService(Context context) {
+        mContext = context;
+        mExecutor.allowCoreThreadTimeOut(true); // don't keep idle threads around when nobody is swiping
+    }
+
+
+    /**
+     * Use to access the MovieDetailService singleton.  If it does not exist, it will be created.
+     *
+     * @param context any context, only the application context is kept
+     * @return the single MovieDetailService instance
+     */
+    public static MovieDetailService get(Context context) {
+        MovieDetailService service = sMovieDetailService;
+        if(service == null) {
+            synchronized (MovieDetailService.class) {
+                service = sMovieDetailService;
+                if(service == null) {
+                    service = new MovieDetailService(context.getApplicationContext());
+                    sMovieDetailService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+
+    /**
+     * @return the MovieDetailService singleton, or null if nothing has asked for it yet
+     */
+    static MovieDetailService peek() { return sMovieDetailService; }
+
+
+    /**
+     * Use to get a MovieDetail that has already been fetched.
+     *
+     * @param movieId themoviedb id of the movie
+     * @return the cached MovieDetail, or null if it is not cached
+     */
+    public MovieDetail getCachedDetail(int movieId) { return mCache.get(movieId); }
+
+
+    /**
+     * Makes sure the details for a movie are on their way.  If they are already cached or already
+     * being fetched, this does nothing.  Registered OnDetailLoadedListeners are called when the
+     * fetch completes.
+     *
+     * @param movieId themoviedb id of the movie
+     */
+    public void requestDetail(final int movieId) {
+        if(mCache.get(movieId) != null) return;
+
+        synchronized (mInFlight) {
+            // checked again in here, the fetch may have finished since the check above
+            if(mInFlight.containsKey(movieId) || mCache.get(movieId) != null) return;
+
+            mInFlight.put(movieId, mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final MovieDetail detail = new TheMovieDbFetcher(mContext).fetchMovieDetail(movieId);
+
+                    // cached before it stops being in flight, so a requestDetail in between always
+                    // sees one or the other, and never starts a second fetch
+                    if(detail != null) mCache.put(movieId, detail);
+                    synchronized (mInFlight) {
+                        mInFlight.remove(movieId);
+                    }
+
+                    if(detail == null) return; // already logged by TheMovieDbFetcher
+
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (OnDetailLoadedListener listener : mListeners) {
+                                listener.onDetailLoaded(detail);
+                            }
+                        }
+                    });
+                }
+            }));
+        }
+    }
+
+
+    /**
+     * Fetches the details for the movies on either side of the current pager position, and cancels
+     * any queued fetch that is no longer near the current position.  Fetches that are already on the
+     * wire are left alone, the result is still worth caching.
+     *
+     * @param snapshot the movie list the pager is showing
+     * @param position the current pager position
+     * @param radius how many movies on each side of position to prefetch
+     */
+    public void prefetchAround(MovieTheater.Snapshot snapshot, int position, int radius) {
+        List<Movie> movies = snapshot.getMovies();
+        if(position < 0 || position >= movies.size()) return;
+
+        int first = Math.max(0, position - radius);
+        int last = Math.min(movies.size() - 1, position + radius);
+
+        synchronized (mInFlight) {
+            for (Map.Entry<Integer, Future<?>> entry : mInFlight.entrySet()) {
+                int index = snapshot.indexOf(entry.getKey());
+                if(index < first || index > last) {
+                    entry.getValue().cancel(false); // false: only cancel if it has not started yet
+                }
+            }
+            // cancelled fetches never run, so they will never remove themselves
+            for (Iterator<Future<?>> it = mInFlight.values().iterator(); it.hasNext();) {
+                if(it.next().isCancelled()) it.remove();
+            }
+        }
+
+        // current page first, then outwards, so the executor works on the closest movies first
+        requestDetail(movies.get(position).id);
+        for (int offset = 1; offset <= radius; offset++) {
+            if(position + offset <= last) requestDetail(movies.get(position + offset).id);
+            if(position - offset >= first) requestDetail(movies.get(position - offset).id);
+        }
+
+        Log.i(LOGTAG, "in prefetchAround, position " + position + ", fetches queued or running: " + mInFlight.size());
+    }
+
+
+    /**
+     * Evicts the least recently used details until at most maxEntries are left.  The ones kept are
+     * the pages the user looked at last, and the prefetches around them.  Called by MemoryGovernor.
+     *
+     * @param maxEntries how many MovieDetails to keep, 0 empties the cache
+     */
+    void trimCache(int maxEntries) {
+        int before = mCache.size();
+        if(maxEntries <= 0) mCache.evictAll();
+        else mCache.trimToSize(maxEntries);
+        Log.i(LOGTAG, "in trimCache, dropped " + (before - mCache.size()) + " cached details");
+    }
+
+
+    public void addOnDetailLoadedListener(OnDetailLoadedListener listener) {
+        if(!mListeners.contains(listener)) mListeners.add(listener);
+    }
+
+    public void removeOnDetailLoadedListener(OnDetailLoadedListener listener) {
+        mListeners.remove(listener);
+    }
+
+
+}
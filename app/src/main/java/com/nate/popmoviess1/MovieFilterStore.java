@@ -0,0 +1,197 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A singleton that holds the user's movie filter prefs, and a few other bits of state that go in
+ * sharedPrefs, in memory.  Reads and writes are plain map operations that any thread can make, and
+ * a write is seen by every read that comes after it, right away.  Getting the values to disk is
+ * done on a background thread: writes are collected for WRITE_DELAY_MS and then committed together
+ * with a single sharedPrefs commit, so a user flicking through filters never waits on the disk.
+ *
+ * <p>
+ * Before this, PreferencesFragment committed every change on the main thread so the new values
+ * would be in sharedPrefs before the grid re-fetched, and the fetch read them back out of
+ * sharedPrefs again.  Now the fetch just asks this store for the current MovieQuery, which is
+ * only rebuilt after a filter pref actually changes.
+ * </p>
+ *
+ * <p>
+ * Everything that writes these keys should go through here.  A value written straight to
+ * sharedPrefs by somebody else would not be seen until the process is restarted.  The one
+ * exception is the Preference widgets themselves, which persist the same values they hand to
+ * PreferencesFragment.onPreferenceChange, so they always agree with this store.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieQuery
+ */
+public class MovieFilterStore {
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+
+    private static final long WRITE_DELAY_MS = 300; // long enough to catch a burst of changes in one commit
+
+    private static volatile MovieFilterStore sMovieFilterStore;
+
+    private final SharedPreferences mSharedPrefs;
+    private final String mAnyCertValue; // the cert pref value that means 'Any Rating'
+    private final String mCertKey;
+    private final String mYearKey;
+    private final String mGenreKey;
+    private final String mSortByKey;
+    private final String mYearSwitchKey;
+
+    // one thread does every write, in order, so an older write can never land after a newer one
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor();
+
+    // everything below is guarded by 'this'
+    private final Map<String, Object> mValues;                    // what every read sees
+    private final Map<String, Object> mPendingWrites = new HashMap<>(); // not on disk yet, null value means remove
+    private MovieQuery mQuery;                                    // built from mValues, null after a filter pref changes
+
+
+    private MovieFilterStore(Context context) {
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mAnyCertValue = context.getString(R.string.themoviedb_any_certification_filter_name_value);
+        mCertKey = context.getString(R.string.pref_movieinfo_cert_key);
+        mYearKey = context.getString(R.string.pref_movieinfo_year_key);
+        mGenreKey = context.getString(R.string.pref_movieinfo_genre_key);
+        mSortByKey = context.getString(R.string.pref_movieinfo_sortby_key);
+        mYearSwitchKey = context.getString(R.string.pref_movieinfo_year_switch_key);
+
+        // the one and only time this store reads sharedPrefs
+        mValues = new HashMap<String, Object>(mSharedPrefs.getAll());
+    }
+
+
+    /**
+     * Use to access the MovieFilterStore singleton.  If it does not exist, it will be created and
+     * will read sharedPrefs once, on the calling thread.
+     *
+     * @param context any context, only the application context is kept
+     * @return the single MovieFilterStore instance
+     */
+    public static MovieFilterStore get(Context context) {
+        MovieFilterStore store = sMovieFilterStore;
+        if(store == null) {
+            synchronized (MovieFilterStore.class) {
+                store = sMovieFilterStore;
+                if(store == null) {
+                    store = new MovieFilterStore(context.getApplicationContext());
+                    sMovieFilterStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+
+    /**
+     * Use instead of reading the movie filter prefs one by one.  Safe to call from any thread.
+     *
+     * @return the query for the current movie filters, the same object until one of the filter prefs changes
+     */
+    public synchronized MovieQuery getQuery() {
+        if(mQuery == null) {
+            String cert = getString(mCertKey, mAnyCertValue); // default to 'Any Rating'
+            mQuery = new MovieQuery(
+                    cert,
+                    cert.equals(mAnyCertValue),
+
+                    // default does not matter because year switch boolean defaults to false below
+                    getString(mYearKey, ""),
+
+                    getString(mGenreKey, ""),
+
+                    // default to 'Most Popular'
+                    getString(mSortByKey, "popularity.desc"),
+
+                    // movie release date toggle switch state is
+                    // used to determine if should query by all years or a specific year
+                    getBoolean(mYearSwitchKey, false)); // default to 'search any year'
+        }
+        return mQuery;
+    }
+
+
+    public synchronized String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return (value instanceof String) ? (String) value : defValue;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return (value instanceof Boolean) ? (Boolean) value : defValue;
+    }
+
+
+    /**
+     * Changes a value right away for every reader, and writes it to sharedPrefs shortly after, on
+     * a background thread.
+     *
+     * @param key the sharedPrefs key
+     * @param value the new value, null removes the key
+     */
+    public void putString(String key, String value) { put(key, value); }
+
+    public void putBoolean(String key, boolean value) { put(key, value); }
+
+    public void remove(String key) { put(key, null); }
+
+
+    private void put(String key, Object value) {
+        synchronized (this) {
+            if(value == null) mValues.remove(key); else mValues.put(key, value);
+            if(isFilterKey(key)) mQuery = null;
+
+            boolean writeScheduled = !mPendingWrites.isEmpty();
+            mPendingWrites.put(key, value);
+            if(writeScheduled) return; // the write already on its way will take this one too
+        }
+
+        mWriter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePendingValues();
+            }
+        }, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    private boolean isFilterKey(String key) {
+        return key.equals(mCertKey) || key.equals(mYearKey) || key.equals(mGenreKey)
+                || key.equals(mSortByKey) || key.equals(mYearSwitchKey);
+    }
+
+
+    // runs on mWriter only, commit instead of apply because this already is the background thread
+    private void writePendingValues() {
+        Map<String, Object> writes;
+        synchronized (this) {
+            writes = new HashMap<>(mPendingWrites);
+            mPendingWrites.clear();
+        }
+
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        for (Map.Entry<String, Object> write : writes.entrySet()) {
+            Object value = write.getValue();
+            if(value == null) editor.remove(write.getKey());
+            else if(value instanceof Boolean) editor.putBoolean(write.getKey(), (Boolean) value);
+            else editor.putString(write.getKey(), (String) value);
+        }
+
+        if(!editor.commit()) Log.e(LOGTAG, "in writePendingValues, failed to write to sharedPrefs: " + writes.keySet());
+        else Log.i(LOGTAG, "in writePendingValues, wrote " + writes.size() + " values in one commit");
+    }
+
+
+}
@@ -1,11 +1,8 @@
 package com.nate.popmoviess1;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.Rect;
-import android.os.AsyncTask;
-import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.os.Bundle;
 import android.support.v7.widget.GridLayoutManager;
@@ -14,9 +11,11 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 
 import java.util.List;
@@ -25,22 +24,56 @@ import java.util.List;
 /**
  * Displays a scrolling grid of movies that can be clicked to see a movie detail view.
  * Images are displayed using a RecyclerView.
- * Movie poster images are loaded as needed by Picasso.
+ * Movie poster images are loaded as needed by Picasso.  Poster requests go ahead of any prefetching,
+ * wait while the grid is flinging, and are cancelled as soon as their view scrolls off screen.
+ * While the grid is on screen, it listens to MovieTheater and applies only the part of the movie
+ * list that changed, instead of rebuilding the whole adapter.  Fetching is done by
+ * RetainedFetchFragment, so rotating the device never starts a second fetch.
+ *
+ * <p>
+ * The grid can also show search results from MovieSearchIndex instead of MovieTheater's list, see
+ * setSearchQuery.  Tapping one of the results hands the results to MovieTheater as search results,
+ * so the detail pager swipes through the same movies the user was looking at, while MovieTheater's
+ * movie list stays the one for the user's movie filters.
+ * </p>
  *
  * @author Nathan Merris
  */
-public class MovieGridFragment extends Fragment {
+public class MovieGridFragment extends Fragment
+        implements MovieTheater.OnMoviesChangedListener {
 
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
 
     private static final String ARG_SHOULD_FETCH_MOVIES = "com.nate.popmoviess1.moviegridfragment.fetch_movies";
+    private static final int MAX_SEARCH_RESULTS = 60;
+    private static final int MIN_SPAN_COUNT = 2; // even a small phone in portrait gets 2 columns
+    private static final String POSTER_REQUEST_TAG = "movie_grid_posters"; // Picasso tag, paused while flinging
+
+    // told when a poster bitmap is actually set, static so Picasso never holds on to a fragment
+    private static final Callback FIRST_POSTER_CALLBACK = new Callback() {
+        @Override
+        public void onSuccess() {
+            StartupFetchBarrier.markFirstContent();
+        }
+
+        @Override
+        public void onError() {
+            // no poster, not content, the next one that loads counts
+        }
+    };
 
     private MovieTheater mMovieTheater; // refers to the singleton class that houses this app's movie thumbnail list
     private RecyclerView mMoviePosterRecyclerView; // displays a grid of movie posters
+    private GridLayoutManager mGridLayoutManager; // span count follows the width of mMoviePosterRecyclerView
+    private GridSpacingItemDecoration mGridSpacingItemDecoration;
     private MoviePosterAdapter mMoviePosterAdapter; // adapter between data in MovieTheater and mMoviePosterRecyclerView
     private Callbacks mCallbacks; // hosting activity will define what the method(s) inside Callback interface should do
-    private SharedPreferences mSharedPrefs;
     private TextView mNoMoviesTextView; // holds a msg informing users that no movies could be displayed
+    private String mSearchQuery; // null unless the grid is showing search results
+
+    // keeps the span count in step with the grid's width, it is registered with the window's
+    // ViewTreeObserver, so it has to be removed in onDestroyView or it outlives this fragment
+    private ViewTreeObserver.OnPreDrawListener mSpanCountPreDrawListener;
 
 
 
@@ -50,7 +83,7 @@ public class MovieGridFragment extends Fragment {
 
     /**
      * Call from a hosting Activity to get a new fragment for a fragment transaction.  The fragment
-     * will display a list of movie posters in grid form: 2 columns in portrait, 3 in landscape.
+     * will display a list of movie posters in grid form, with as many columns as fit the width.
      * Clicking on a movie will start a call to MovieGridFragment's onMovieSelected callback, which
      * the hosting activity must implement.  Independence: it's not just an awesome US holiday.
      *
@@ -76,8 +109,17 @@ public class MovieGridFragment extends Fragment {
         /**
          * Hosting Activity should determine what happens when a movie is tapped from the movie grid.
          * @param movie the movie that was just tapped by user from the grid view
+         * @param inSearchResults true if the grid was showing search results, which are then in
+         *                        MovieTheater.getSearchResults instead of MovieTheater's movie list
          */
-        void onMovieSelected(Movie movie);
+        void onMovieSelected(Movie movie, boolean inSearchResults);
+
+        /**
+         * Hosting Activity should keep one pool of poster views for every MovieGridFragment it
+         * hosts, so a new grid starts with views the last one already inflated.
+         * @return the pool every MovieGridFragment in the hosting activity shares
+         */
+        PosterViewPool getPosterViewPool();
     }
 
     @Override
@@ -106,14 +148,15 @@ public class MovieGridFragment extends Fragment {
         Log.i(LOGTAG, "just entered onCreate()");
 
         mMovieTheater = MovieTheater.get(getActivity());
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
 
         if(savedInstanceState == null) {
-            Log.i(LOGTAG, "  and savedInstanceState is NULL, may or may not perform a FetchMoviesTask...");
+            Log.i(LOGTAG, "  and savedInstanceState is NULL, may or may not fetch movies...");
 
             if(getArguments().getBoolean(ARG_SHOULD_FETCH_MOVIES)) {
                 Log.i(LOGTAG, "    and got fragment arg boolean extra to fetch new movies");
-                new FetchMoviesTask().execute(); // update MovieTheater with a new movie list
+                // the fetch is owned by a retained fragment so it survives rotation, MovieTheater
+                // will tell this fragment about the new movie list when it arrives
+                RetainedFetchFragment.get(getFragmentManager()).fetchMovies(getActivity());
             }
         }
         else {
@@ -124,39 +167,60 @@ public class MovieGridFragment extends Fragment {
 
 
     /**
-     * Make the movie posters look nice, with even padding all around.
+     * Make the movie posters look nice, with even padding all around.  The left and right offsets only
+     * depend on the column, so they are worked out once per column into a lookup table when the span
+     * count changes, instead of for every poster on every layout pass.
      *
      * @author edwardaa on Stackoverflow
      * @see <a>http://stackoverflow.com/questions/28531996/android-recyclerview-gridlayoutmanager-column-spacing</a>
      */
-    public class GridSpacingItemDecoration extends RecyclerView.ItemDecoration {
+    static class GridSpacingItemDecoration extends RecyclerView.ItemDecoration {
 
+        private final int spacing;
+        private final boolean includeEdge;
         private int spanCount;
-        private int spacing;
-        private boolean includeEdge;
+        private int[] columnLeft;  // column -> outRect.left
+        private int[] columnRight; // column -> outRect.right
 
-        public GridSpacingItemDecoration(int spanCount, int spacing, boolean includeEdge) {
-            this.spanCount = spanCount;
+        GridSpacingItemDecoration(int spanCount, int spacing, boolean includeEdge) {
             this.spacing = spacing;
             this.includeEdge = includeEdge;
+            setSpanCount(spanCount);
+        }
+
+        // rebuilds the per column offsets, call RecyclerView.invalidateItemDecorations after
+        void setSpanCount(int spanCount) {
+            if(spanCount == this.spanCount) return;
+            this.spanCount = spanCount;
+            columnLeft = new int[spanCount];
+            columnRight = new int[spanCount];
+
+            for (int column = 0; column < spanCount; column++) {
+                if (includeEdge) {
+                    columnLeft[column] = spacing - column * spacing / spanCount; // spacing - column * ((1f / spanCount) * spacing)
+                    columnRight[column] = (column + 1) * spacing / spanCount; // (column + 1) * ((1f / spanCount) * spacing)
+                } else {
+                    columnLeft[column] = column * spacing / spanCount; // column * ((1f / spanCount) * spacing)
+                    columnRight[column] = spacing - (column + 1) * spacing / spanCount; // spacing - (column + 1) * ((1f /    spanCount) * spacing)
+                }
+            }
         }
 
         @Override
         public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
             int position = parent.getChildAdapterPosition(view); // item position
+            if (position == RecyclerView.NO_POSITION) return; // being removed, keeps whatever it had
+
             int column = position % spanCount; // item column
+            outRect.left = columnLeft[column];
+            outRect.right = columnRight[column];
 
             if (includeEdge) {
-                outRect.left = spacing - column * spacing / spanCount; // spacing - column * ((1f / spanCount) * spacing)
-                outRect.right = (column + 1) * spacing / spanCount; // (column + 1) * ((1f / spanCount) * spacing)
-
                 if (position < spanCount) { // top edge
                     outRect.top = spacing;
                 }
                 outRect.bottom = spacing; // item bottom
             } else {
-                outRect.left = column * spacing / spanCount; // column * ((1f / spanCount) * spacing)
-                outRect.right = spacing - (column + 1) * spacing / spanCount; // spacing - (column + 1) * ((1f /    spanCount) * spacing)
                 if (position >= spanCount) {
                     outRect.top = spacing; // item top
                 }
@@ -165,6 +229,38 @@ public class MovieGridFragment extends Fragment {
     }
 
 
+    // how many poster columns fit in width pixels, never fewer than MIN_SPAN_COUNT
+    private static int spanCountFor(Resources resources, int width) {
+        int spacing = resources.getDimensionPixelSize(R.dimen.movie_grid_poster_margin);
+        int posterWidth = resources.getDimensionPixelSize(R.dimen.movie_grid_poster_target_width);
+        return Math.max(MIN_SPAN_COUNT, (width - spacing) / (posterWidth + spacing));
+    }
+
+
+    // the width is not measured yet in onCreateView, so guess from the screen, the first
+    // pre draw corrects it if the grid only gets part of the screen, like on a tablet
+    private static int estimateSpanCount(Resources resources) {
+        return spanCountFor(resources, resources.getDisplayMetrics().widthPixels);
+    }
+
+
+    /**
+     * Guesses how many posters fill the first screen of the grid, counting the row that is only
+     * partly on screen.  Used to decide how many poster views to inflate before the grid exists.
+     *
+     * @param resources used to get the screen size and poster dimens
+     * @return roughly how many poster views the first frame of the grid will need
+     */
+    static int estimateFirstScreenPosterCount(Resources resources) {
+        int spanCount = estimateSpanCount(resources);
+        int spacing = resources.getDimensionPixelSize(R.dimen.movie_grid_poster_margin);
+        int posterWidth = (resources.getDisplayMetrics().widthPixels - spacing) / spanCount - spacing;
+        int posterHeight = posterWidth * 3 / 2; // themoviedb posters are 2:3
+        int rows = resources.getDisplayMetrics().heightPixels / (posterHeight + spacing) + 1;
+        return spanCount * rows;
+    }
+
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -176,41 +272,144 @@ public class MovieGridFragment extends Fragment {
         mMoviePosterRecyclerView = (RecyclerView) rootView.findViewById(R.id.fragment_movie_grid_recycler_view);
         mNoMoviesTextView = (TextView) rootView.findViewById(R.id.fragment_movie_grid_no_movies);
 
-        // define the layout that the RecyclerView will use
-        if(getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
+        // define the layout that the RecyclerView will use, as many columns as there is room for
+        // posters about movie_grid_poster_target_width wide, so tablets and split screen get more
+        int spanCount = estimateSpanCount(getResources());
+        mGridSpacingItemDecoration = new GridSpacingItemDecoration(spanCount,
+                getResources().getDimensionPixelSize(R.dimen.movie_grid_poster_margin), true);
+        mMoviePosterRecyclerView.addItemDecoration(mGridSpacingItemDecoration); // this view's only one
+        mGridLayoutManager = new GridLayoutManager(getActivity(), spanCount, GridLayoutManager.VERTICAL, false);
+
+        // when this fragment is replaced, its poster views go back into the activity's pool for
+        // the next MovieGridFragment to reuse, instead of being thrown away and inflated again
+        mGridLayoutManager.setRecycleChildrenOnDetach(true);
+        mMoviePosterRecyclerView.setLayoutManager(mGridLayoutManager);
+        mMoviePosterRecyclerView.setRecycledViewPool(mCallbacks.getPosterViewPool());
+
+        // once the real width is known, and every time it changes (split screen resizing, etc), fix
+        // the span count before anything is drawn with the wrong one
+        mSpanCountPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if(!isAdded() || mMoviePosterRecyclerView.getWidth() == 0) return true;
+
+                int spanCount = spanCountFor(getResources(), mMoviePosterRecyclerView.getWidth());
+                if(spanCount == mGridLayoutManager.getSpanCount()) return true; // draw this frame
+
+                Log.i(LOGTAG, "in onPreDraw, changing span count to " + spanCount);
+                mGridLayoutManager.setSpanCount(spanCount);
+                mGridSpacingItemDecoration.setSpanCount(spanCount);
+                mMoviePosterRecyclerView.invalidateItemDecorations();
+                return false; // skip this frame, the next layout has the right number of columns
+            }
+        };
+        mMoviePosterRecyclerView.getViewTreeObserver().addOnPreDrawListener(mSpanCountPreDrawListener);
+
+        mMoviePosterAdapter = new MoviePosterAdapter(mMovieTheater.getSnapshot());
+        mMoviePosterRecyclerView.setAdapter(mMoviePosterAdapter);
+        FrameStats.trackScrolling(mMoviePosterRecyclerView); // does nothing unless FrameStats is on
+
+        // a fling binds posters that are only on screen for a frame or two, so hold their downloads
+        // until it settles, by then most of them have been recycled and cancelled
+        mMoviePosterRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                Picasso picasso = Picasso.with(recyclerView.getContext());
+                if(newState == RecyclerView.SCROLL_STATE_SETTLING) picasso.pauseTag(POSTER_REQUEST_TAG);
+                else picasso.resumeTag(POSTER_REQUEST_TAG);
+            }
+        });
+
+        updateUI();
 
-            mMoviePosterRecyclerView.addItemDecoration(new GridSpacingItemDecoration(2,
-                    getResources().getDimensionPixelSize(R.dimen.movie_grid_poster_margin), true));
+        return rootView;
+    }
 
-            mMoviePosterRecyclerView.setLayoutManager(new GridLayoutManager(getActivity(),
-                    2, GridLayoutManager.VERTICAL, false)); // 2 columns for portrait
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        // the grid is still attached to the window here, so this is the observer the listener ended up in
+        ViewTreeObserver observer = mMoviePosterRecyclerView.getViewTreeObserver();
+        if(observer.isAlive()) observer.removeOnPreDrawListener(mSpanCountPreDrawListener);
+        mSpanCountPreDrawListener = null;
+    }
+
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        // MovieTheater may have changed while this fragment was not listening, so catch up first
+        mMovieTheater.addOnMoviesChangedListener(this);
+        if(mMoviePosterAdapter.getSnapshot().getVersion() != mMovieTheater.getSnapshot().getVersion()) {
+            mMoviePosterAdapter.setSnapshot(mMovieTheater.getSnapshot());
+            updateUI();
         }
-        else {
+    }
+
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mMovieTheater.removeOnMoviesChangedListener(this);
+
+        // if this grid goes away mid fling, the next one must not start out with its posters paused
+        Picasso.with(getActivity()).resumeTag(POSTER_REQUEST_TAG);
+    }
 
-            mMoviePosterRecyclerView.addItemDecoration(new GridSpacingItemDecoration(3,
-                    getResources().getDimensionPixelSize(R.dimen.movie_grid_poster_margin), true));
 
-            mMoviePosterRecyclerView.setLayoutManager(new GridLayoutManager(getActivity(),
-                    3, GridLayoutManager.VERTICAL, false)); // 3 columns for landscape
+    /**
+     * Applies a change in MovieTheater's movie list to the grid.  If the adapter is holding the exact
+     * Snapshot the change was made to, only the posters MovieListDiff finds moved or changed are
+     * rebound, otherwise the adapter just swaps to the newest Snapshot and the whole grid is refreshed.
+     *
+     * @param event describes what changed in MovieTheater
+     */
+    @Override
+    public void onMoviesChanged(MovieTheater.MoviesChangedEvent event) {
+        if(mMoviePosterAdapter == null) return;
+
+        if(mMoviePosterAdapter.getSnapshot().getVersion() != event.getPreviousVersion()) {
+            // missed one or more events somewhere along the way, just start over with the newest list
+            mMoviePosterAdapter.setSnapshot(mMovieTheater.getSnapshot());
+        }
+        else {
+            mMoviePosterAdapter.applyEvent(event);
         }
 
         updateUI();
+    }
 
-        return rootView;
+
+    /**
+     * Shows the movies from MovieSearchIndex that match query instead of MovieTheater's list, or goes
+     * back to MovieTheater's list when query is null or empty.  Searching is all done locally and is
+     * fast enough to call on every keystroke.
+     *
+     * @param query what the user has typed so far, null when the search is closed
+     * @see MovieSearchIndex#search(String, int)
+     */
+    public void setSearchQuery(String query) {
+        if(query == null || query.trim().isEmpty()) {
+            mSearchQuery = null;
+            mMoviePosterAdapter.setSearchResults(null);
+        }
+        else {
+            mSearchQuery = query;
+            mMoviePosterAdapter.setSearchResults(
+                    MovieSearchIndex.get(getActivity()).search(query, MAX_SEARCH_RESULTS));
+        }
+        updateUI();
     }
 
 
     public void updateUI() {
         //Log.i(LOGTAG, "just entered updateUI()");
 
-        // get a ref to the app global MovieTheater, which houses the movies list
-        //MovieTheater movieTheater = MovieTheater.get(getActivity());
-
-        // get the list of movies.. this does not update the list in any way
-        List<Movie> movies = mMovieTheater.getMovies();
-
         // no movies in MovieTheater, don't care about the reason for S1 of this project, will customize msg in S2
-        if(mMovieTheater.getMovieListSize() < 1) {
+        if(mMoviePosterAdapter.getItemCount() < 1) {
             // show no movies msg, hide recyclerview
             mMoviePosterRecyclerView.setVisibility(View.GONE);
             mNoMoviesTextView.setVisibility(View.VISIBLE);
@@ -219,11 +418,6 @@ public class MovieGridFragment extends Fragment {
             // show recyclerview, hide no movies msg
             mMoviePosterRecyclerView.setVisibility(View.VISIBLE);
             mNoMoviesTextView.setVisibility(View.GONE);
-
-            // set up and refresh the adapter with the new movie list
-            mMoviePosterAdapter = new MoviePosterAdapter(movies);
-            mMoviePosterRecyclerView.setAdapter(mMoviePosterAdapter);
-            mMoviePosterAdapter.notifyDataSetChanged();
         }
 
     }
@@ -233,11 +427,13 @@ public class MovieGridFragment extends Fragment {
     // there is a performance benefit to using RecyclerView, namely the Views do not need to be
     // 'found' every time the movie grid fragment creates it's views..
     // they are found once and then stored in the ViewHolder
-    // the onClickListener is also implemented here.. nice and tidy
-    private class MoviePosterHolder extends RecyclerView.ViewHolder
+    // it is static because holders outlive the fragment that made them in the shared
+    // PosterViewPool, so the fragment to tell about clicks is handed over every time it is bound
+    static class MoviePosterHolder extends RecyclerView.ViewHolder
         implements View.OnClickListener {
 
         private Movie mMovie;
+        private MovieGridFragment mFragment; // the fragment it was last bound by
         private ImageView mPosterImageView;
 
         public MoviePosterHolder(View itemView) {
@@ -251,142 +447,133 @@ public class MovieGridFragment extends Fragment {
         }
 
 
-        public void bindMovie(Movie movie) {
+        public void bindMovie(Movie movie, MovieGridFragment fragment) {
             mMovie = movie;
+            mFragment = fragment;
+        }
+
+
+        // a holder waiting in PosterViewPool must not keep the last grid that used it alive
+        public void unbind() {
+            mMovie = null;
+            mFragment = null;
         }
 
 
         @Override
         public void onClick(View view) {
-            mCallbacks.onMovieSelected(mMovie);
+            if(mFragment != null) mFragment.onPosterClicked(mMovie);
         }
 
     } // end inner class
 
 
+    private void onPosterClicked(Movie movie) {
+        List<Movie> searchResults = mMoviePosterAdapter.getSearchResults();
+        if(searchResults != null) {
+            // so the detail pager has the search results to swipe through
+            mMovieTheater.setSearchResults(searchResults);
+        }
+        if(mCallbacks != null) mCallbacks.onMovieSelected(movie, searchResults != null);
+    }
+
+
     // MoviePosterAdapter does what any adapter does: it is the controller that sits between
     // the list of movies in MovieTheater singleton and the RecyclerView that displays them
-    // the List passed to it's constructor is the list of movies in MovieTheater
+    // the Snapshot passed to it's constructor is MovieTheater's immutable movie list at that moment
     private class MoviePosterAdapter extends RecyclerView.Adapter<MoviePosterHolder> {
 
-        private List<Movie> mMovies; // local reference to the app global movie list
+        private MovieTheater.Snapshot mSnapshot; // the immutable movie list this adapter is currently showing
+        private List<Movie> mSearchResults; // shown instead of mSnapshot while not null
 
-        public MoviePosterAdapter(List<Movie> movies) {
-            mMovies = movies;
+        public MoviePosterAdapter(MovieTheater.Snapshot snapshot) {
+            mSnapshot = snapshot;
         }
 
 
-        @Override
-        public MoviePosterHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
-            // get a ref to hosting activities LayoutInflator
-            LayoutInflater layoutInflater = LayoutInflater.from(getActivity());
-
-            // for now the view just needs to hold a single ImageView.. (the movie thumbnail pic)
-            View view = layoutInflater.inflate(R.layout.moviegrid_poster, viewGroup, false);
-            return new MoviePosterHolder(view);
-        }
+        public MovieTheater.Snapshot getSnapshot() { return mSnapshot; }
 
 
-        @Override
-        public void onBindViewHolder(MoviePosterHolder holder, int position) {
-
-            holder.bindMovie(mMovies.get(position));
-
-            // good Lord, it looks like a LOT of work to do this with stock android Handlers, Loopers, Messages, etc..
-            // Picasso does all the grunt work for me
-            Picasso.with(getActivity())
-                    .load(mMovies.get(position).getPosterUrl()) // the fully formed image URL
-                    //.placeholder(R.drawable.movie_placeholder) // probably don't need this
-                    .into(holder.mPosterImageView);
-
+        public void setSnapshot(MovieTheater.Snapshot snapshot) {
+            MovieTheater.Snapshot previous = mSnapshot;
+            mSnapshot = snapshot;
+            if(mSearchResults == null) notifyReplaced(previous);
         }
 
 
-        @Override
-        public int getItemCount() {
-            return mMovies.size();
+        // a fresh list for the same filters, like the refresh of the list restored at launch, is
+        // usually almost the same list, so only the posters that actually changed are touched
+        private void notifyReplaced(MovieTheater.Snapshot previous) {
+            String filterKey = mSnapshot.getFilterKey();
+            if(filterKey != null && filterKey.equals(previous.getFilterKey())
+                    && MovieListDiff.dispatch(previous.getMovies(), mSnapshot.getMovies(), this)) {
+                return;
+            }
+            notifyDataSetChanged();
         }
 
-    } // end inner class
 
+        public List<Movie> getSearchResults() { return mSearchResults; }
 
-    /**
-     * Fetches movie metadata from themoviedb based on the filter parameters currently stored
-     * in sharePrefs.  When this task is started the first time this app is launched after install,
-     * the sharedPrefs key-value pairs will not yet exist if the user has not navigated to PreferencesFragment
-     * yet, which would only be possible on phones that run in single pane mode. To ensure that this
-     * task returns the most popular movies of any year in any genre in that case,
-     * the movie year getBoolean method defaults to false (so TheMovieDbFetcher will ignore
-     * the releasedate param), the certification getString call will default to "Any Year", and the
-     * sort order getString call defaults to 'popularity.desc'.  The genreId is set to -1 right here
-     * in doInBackground when a number format exception is thrown, so theMovieDbFetcher will know to ignore the genre id.
-     *
-     * <p>
-     * I do not like how this works, it's kind of confusing and scattered.  Like many of the obnoxious
-     * design issues I have ended up with in this app, this will be corrected in stage 2 when I
-     * use some kind of initialization service that will ensure that EVERYTHING in this app is
-     * ready to go before any Activities even start.  That will include MovieTheater's movie list,
-     * and also the list of genre id-name pairs, and the certifications.  The problem is I have
-     * things initializing in different places.. it's just difficult to manage.  Chalk it up to
-     * me being so green as a coder!  Programmatically adding user selectable lists of genres and
-     * certifications using async tasks ended up being much trickier than I thought!!
-     * </p>
-     *
-     * In postExecute, the metadata is stored in MovieTheater's list of Movies to be used elsewhere.
-     * This fragments updateUI method is called in onPostExecute.  If the fetch returns no movies
-     * for any reason, a msg is shown to the user indicating so.
-     *
-     * @see MovieTheater#updateMovies(List)
-     * @see MovieGridFragment#updateUI()
-     * @see TheMovieDbFetcher#fetchMovies(String, String, int, String, boolean)
-     */
-    private class FetchMoviesTask extends AsyncTask<Void, Void, List<Movie>> {
 
-        @Override
-        protected List<Movie> doInBackground(Void... params) {
-            Log.i(LOGTAG, "just entered FetchMoviesTask.doInBackground");
+        // pass null to go back to showing mSnapshot
+        public void setSearchResults(List<Movie> searchResults) {
+            mSearchResults = searchResults;
+            notifyDataSetChanged();
+        }
 
-            int genreId;
 
-            try {
-                genreId = Integer.valueOf(mSharedPrefs.getString(getString(R.string.pref_movieinfo_genre_key), ""));
-            }
-            catch (NumberFormatException nfe) {
-                genreId = -1;
-            }
+        // only call when mSnapshot is the exact version the event was applied to
+        public void applyEvent(MovieTheater.MoviesChangedEvent event) {
+            MovieTheater.Snapshot previous = mSnapshot;
+            mSnapshot = event.getSnapshot();
+            if(mSearchResults != null) return; // not showing mSnapshot right now, nothing to animate
+
+            notifyReplaced(previous); // every event is a TYPE_REPLACED
+        }
 
-            return new TheMovieDbFetcher(getActivity()).fetchMovies(
 
-                    // certificaiton param
-                    mSharedPrefs.getString(getString(R.string.pref_movieinfo_cert_key),
-                            // default to 'Any Rating'
-                            getString(R.string.themoviedb_any_certification_filter_name_value)),
+        @Override
+        public MoviePosterHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+            // only gets here when the shared PosterViewPool has run dry
+            return mCallbacks.getPosterViewPool().obtainHolder(LayoutInflater.from(getActivity()), viewGroup);
+        }
 
-                    //releasedate param
-                    mSharedPrefs.getString(getString(R.string.pref_movieinfo_year_key),
-                            ""),   // default does not matter because year switch boolean defaults to false below
 
-                    // genre id param
-                    genreId, // defaults to -1 or 'Any Genre' above
+        @Override
+        public void onBindViewHolder(MoviePosterHolder holder, int position) {
+            long bindStart = FrameStats.startTimer();
 
-                    // sort order param
-                    mSharedPrefs.getString(getString(R.string.pref_movieinfo_sortby_key),
-                            "popularity.desc"), // default to 'Most Popular'
+            Movie movie = (mSearchResults != null) ? mSearchResults.get(position) : mSnapshot.getMovies().get(position);
+            holder.bindMovie(movie, MovieGridFragment.this);
 
-                    // movie release date toggle switch state is
-                    // used to determine if should query by all years or a specific year
-                    mSharedPrefs.getBoolean(getString(R.string.pref_movieinfo_year_switch_key),
-                            false)); // default to 'search any year'
+            // good Lord, it looks like a LOT of work to do this with stock android Handlers, Loopers, Messages, etc..
+            // Picasso does all the grunt work for me
+            Picasso.with(getActivity())
+                    .load(movie.getPosterUrl()) // the fully formed image URL
+                    //.placeholder(R.drawable.movie_placeholder) // probably don't need this
+                    .priority(Picasso.Priority.HIGH) // this cell is on screen, or about to be
+                    .tag(POSTER_REQUEST_TAG)
+                    // until the first poster is on screen, find out when it is, from the disk cache on a normal launch
+                    .into(holder.mPosterImageView,
+                            StartupFetchBarrier.getFirstContentMillis() < 0 ? FIRST_POSTER_CALLBACK : null);
 
+            FrameStats.stopTimer(FrameStats.GRID_BIND, bindStart);
         }
 
+
+        // the cell scrolled off screen, or the grid went away (its children are recycled on detach),
+        // if its poster is still queued it never gets downloaded
         @Override
-        protected void onPostExecute(List<Movie> items) {
-            Log.i(LOGTAG, "EXITING FetchMoviesTask.onPostExecute");
+        public void onViewRecycled(MoviePosterHolder holder) {
+            Picasso.with(holder.mPosterImageView.getContext()).cancelRequest(holder.mPosterImageView);
+            holder.unbind();
+        }
 
-            mMovieTheater.updateMovies(items); // update the list of Movies in MovieTheater singleton
 
-            updateUI();
+        @Override
+        public int getItemCount() {
+            return (mSearchResults != null) ? mSearchResults.size() : mSnapshot.size();
         }
 
     } // end inner class
@@ -0,0 +1,112 @@
+package com.nate.popmoviess1;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Works out the smallest set of inserts and removes that turns one movie list into another, and
+ * tells a RecyclerView.Adapter about them one by one.  A refresh of the list the grid is already
+ * showing usually changes very little, a couple of movies swap places or one drops off the end, so
+ * only those posters move and get bound again, instead of notifyDataSetChanged rebinding and
+ * reloading every one of them.  Movies that stay put but have new metadata get a change
+ * notification, which is cheap because their poster is already in Picasso's memory cache.
+ *
+ * <p>
+ * It is the classic longest common subsequence over the movie ids: the movies in it stay, everything
+ * else is removed or inserted.  That is rows * columns work, so lists longer than MAX_CELLS allows
+ * are not diffed, the caller just falls back to notifyDataSetChanged.  The support library this app
+ * is built with has no DiffUtil.
+ * </p>
+ *
+ * @author Nathan Merris
+ */
+final class MovieListDiff {
+
+    private static final int MAX_CELLS = 250 * 250; // a few hundred KB of ints at most, a couple of ms
+
+    private MovieListDiff() {}
+
+
+    /**
+     * Gets every change, in order, with positions as they are in the list at the time of each change,
+     * exactly what RecyclerView.Adapter's notifyItem methods expect.
+     */
+    interface Callback {
+        void onInserted(int position);
+        void onRemoved(int position);
+        void onChanged(int position);
+    }
+
+
+    /**
+     * Notifies adapter of every change it takes to go from oldMovies to newMovies.  Call right after
+     * the adapter has switched to newMovies, and only while it was showing oldMovies before that.
+     *
+     * @param oldMovies what the adapter was showing
+     * @param newMovies what it is showing now
+     * @param adapter the adapter to notify
+     * @return false if the lists were too long to diff, and nothing was notified
+     */
+    static boolean dispatch(List<Movie> oldMovies, List<Movie> newMovies, final RecyclerView.Adapter<?> adapter) {
+        return dispatch(oldMovies, newMovies, new Callback() {
+            @Override
+            public void onInserted(int position) { adapter.notifyItemInserted(position); }
+
+            @Override
+            public void onRemoved(int position) { adapter.notifyItemRemoved(position); }
+
+            @Override
+            public void onChanged(int position) { adapter.notifyItemChanged(position); }
+        });
+    }
+
+
+    /**
+     * Same as dispatch with an adapter, but tells callback instead.
+     *
+     * @return false if the lists were too long to diff, and callback was not called at all
+     */
+    static boolean dispatch(List<Movie> oldMovies, List<Movie> newMovies, Callback callback) {
+        int oldSize = oldMovies.size();
+        int newSize = newMovies.size();
+        if((long) (oldSize + 1) * (newSize + 1) > MAX_CELLS) return false;
+
+        // common[i][j] is the length of the longest common subsequence of oldMovies[i..] and newMovies[j..]
+        int columns = newSize + 1;
+        int[] common = new int[(oldSize + 1) * columns];
+        for (int i = oldSize - 1; i >= 0; i--) {
+            int oldId = oldMovies.get(i).id;
+            for (int j = newSize - 1; j >= 0; j--) {
+                common[i * columns + j] = (oldId == newMovies.get(j).id)
+                        ? common[(i + 1) * columns + j + 1] + 1
+                        : Math.max(common[(i + 1) * columns + j], common[i * columns + j + 1]);
+            }
+        }
+
+        // walk it front to back, position is where the change lands in the adapter as it is so far
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < oldSize || j < newSize) {
+            if(i < oldSize && j < newSize && oldMovies.get(i).id == newMovies.get(j).id) {
+                if(!newMovies.get(j).hasSameStoredFields(oldMovies.get(i))) callback.onChanged(position);
+                i++;
+                j++;
+                position++;
+            }
+            else if(j < newSize && (i == oldSize || common[i * columns + j + 1] >= common[(i + 1) * columns + j])) {
+                callback.onInserted(position);
+                j++;
+                position++;
+            }
+            else {
+                callback.onRemoved(position);
+                i++;
+            }
+        }
+        return true;
+    }
+
+
+}
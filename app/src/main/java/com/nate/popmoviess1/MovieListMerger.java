@@ -0,0 +1,145 @@
+package com.nate.popmoviess1;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Merges several movie lists that themoviedb already sorted the same way into one sorted list, the
+ * way you would merge sorted runs in a merge sort.  Only the head of each list is ever compared, so
+ * it takes k log k per movie taken, and it stops as soon as it has as many movies as were asked for
+ * instead of sorting everything that came back.  Movies that show up in more than one list (a
+ * movie can match more than one of the fanned out queries) are only kept the first time.
+ *
+ * <p>
+ * Not every themoviedb sort_by can be repeated here: the discover results do not include revenue,
+ * for example.  For those the lists are merged by rank instead, so the #1 movie of every list comes
+ * first, then every #2, and so on.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher#fetchMovies(MovieQuery)
+ */
+final class MovieListMerger {
+
+    private MovieListMerger() {}
+
+
+    // where the merge is up to in one of the lists
+    private static final class Cursor {
+        final List<Movie> movies;
+        final int listIndex; // breaks ties, so equal movies come out in the order the lists were given
+        int position;
+
+        Cursor(List<Movie> movies, int listIndex) {
+            this.movies = movies;
+            this.listIndex = listIndex;
+        }
+
+        Movie head() { return movies.get(position); }
+    }
+
+
+    /**
+     * Merges lists that are each already sorted by sortBy.
+     *
+     * @param lists the sorted lists, they are only read
+     * @param sortBy the themoviedb sort_by param the lists were fetched with, like 'popularity.desc'
+     * @param limit the most movies to return
+     * @return a new list of at most limit movies, sorted by sortBy, with no duplicate ids
+     */
+    static List<Movie> merge(List<List<Movie>> lists, String sortBy, int limit) {
+        final Comparator<Movie> order = comparatorFor(sortBy);
+
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, lists.size()), new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor lhs, Cursor rhs) {
+                int result = order != null ? order.compare(lhs.head(), rhs.head()) : 0;
+                if(result == 0) result = compareInts(lhs.position, rhs.position); // by rank
+                if(result == 0) result = compareInts(lhs.listIndex, rhs.listIndex);
+                return result;
+            }
+        });
+
+        for (int i = 0; i < lists.size(); i++) {
+            if(!lists.get(i).isEmpty()) heads.add(new Cursor(lists.get(i), i));
+        }
+
+        List<Movie> merged = new ArrayList<>();
+        Set<Integer> seenIds = new HashSet<>();
+
+        while (merged.size() < limit && !heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            Movie movie = cursor.head();
+            if(seenIds.add(movie.id)) merged.add(movie);
+
+            cursor.position++;
+            if(cursor.position < cursor.movies.size()) heads.add(cursor); // re-sort on its new head
+        }
+
+        return merged;
+    }
+
+
+    /**
+     * Returns a comparator that puts movies in the same order themoviedb does for a sort_by param.
+     *
+     * @param sortBy a themoviedb sort_by param, like 'vote_average.desc'
+     * @return the comparator, or null if the field is not in the discover results
+     */
+    static Comparator<Movie> comparatorFor(String sortBy) {
+        final boolean descending = sortBy.endsWith(".desc");
+        String field = sortBy.substring(0, Math.max(0, sortBy.lastIndexOf('.')));
+
+        final Comparator<Movie> ascending;
+        switch (field) {
+            case "popularity":
+                ascending = new Comparator<Movie>() {
+                    @Override
+                    public int compare(Movie lhs, Movie rhs) { return Float.compare(lhs.popularity, rhs.popularity); }
+                };
+                break;
+            case "vote_average":
+                ascending = new Comparator<Movie>() {
+                    @Override
+                    public int compare(Movie lhs, Movie rhs) { return Float.compare(lhs.vote_average, rhs.vote_average); }
+                };
+                break;
+            case "vote_count":
+                ascending = new Comparator<Movie>() {
+                    @Override
+                    public int compare(Movie lhs, Movie rhs) { return compareInts(lhs.vote_count, rhs.vote_count); }
+                };
+                break;
+            case "release_date":
+            case "primary_release_date":
+                ascending = new Comparator<Movie>() {
+                    @Override
+                    public int compare(Movie lhs, Movie rhs) {
+                        // movies with no date go first, NO_RELEASE_DATE is the smallest int
+                        return compareInts(lhs.getReleaseEpochDay(), rhs.getReleaseEpochDay());
+                    }
+                };
+                break;
+            default:
+                return null; // revenue, original_title, etc: not in the results or not sorted the same
+        }
+
+        if(!descending) return ascending;
+        return new Comparator<Movie>() {
+            @Override
+            public int compare(Movie lhs, Movie rhs) { return ascending.compare(rhs, lhs); }
+        };
+    }
+
+
+    // Integer.compare is API 19
+    private static int compareInts(int lhs, int rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+
+}
@@ -0,0 +1,254 @@
+package com.nate.popmoviess1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The movie filter values the user currently has selected, all in one immutable object so they can
+ * be handed to a background thread without it ever having to touch sharedPrefs or String resources
+ * itself.  It is the one thing fetching, caching, de-duplicating and storing movie lists all go by.
+ * Get the current one from MovieFilterStore.getQuery.  When the app is launched the first time after
+ * install, the sharedPrefs key-value pairs will not yet exist if the user has not navigated to
+ * PreferencesFragment yet, so every value has a default that means 'the most popular movies of any
+ * year in any genre'.
+ *
+ * <p>
+ * The year pref can hold more than a single year: '1990-1999' is a range, and '1985, 1990-1995' is a
+ * list of years and ranges.  They are parsed here into sorted YearRanges, with overlapping and touching
+ * ranges already joined together, so '1990-1995, 1994-1999' ends up as the single range 1990-1999.
+ * The genre pref can likewise hold a comma separated list of genre ids, any one of which is a match.
+ * </p>
+ *
+ * <p>
+ * Two queries that would fetch the same movies have the same key, and are equal: the year is left
+ * out entirely while the year switch is off, no matter what is typed in it, years and genres are
+ * sorted and de-duplicated, and 'Any Rating' is '*' rather than whatever the string resource says
+ * in the current language.  The key is plain text in a fixed, versioned format, so it is exactly
+ * the same bytes from one run, device or locale to the next, and can be stored in the database.
+ * Change KEY_VERSION if the format ever changes, so old keys just stop matching.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieFilterStore#getQuery()
+ * @see TheMovieDbFetcher#fetchMovies(MovieQuery)
+ */
+final class MovieQuery {
+
+    final String cert;               // defaults to 'Any Rating'
+    final boolean anyCert;           // true when cert is 'Any Rating'
+    final int minVoteCount;          // movies with fewer votes than this are left out
+    final String releaseDate;        // what the user typed, trimmed, always '' when querySpecificYear is false
+    final List<YearRange> years;     // parsed from releaseDate, empty if it could not be parsed
+    final int[] genreIds;            // empty means 'Any Genre'
+    final String sortBy;             // defaults to 'popularity.desc'
+    final boolean querySpecificYear; // the year toggle switch, defaults to 'search any year'
+    final String key;                // canonical, identifies these filter values, stored with the movie list in MovieTheater
+
+    // themoviedb's oldest movies are from the 1870s, and it lists upcoming movies a few years out,
+    // a year outside this range can only ever come back empty, so it is never sent
+    static final int MIN_RELEASE_YEAR = 1874;
+    static final int MAX_RELEASE_YEAR = Calendar.getInstance().get(Calendar.YEAR) + 5;
+
+    private static final String KEY_VERSION = "q1";
+    private static final String ANY = "*";
+
+
+    /**
+     * An inclusive range of release years, from and to are the same year for a single year.
+     */
+    static final class YearRange {
+        final int from;
+        final int to;
+
+        YearRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isSingleYear() { return from == to; }
+
+        @Override
+        public String toString() { return isSingleYear() ? String.valueOf(from) : from + "-" + to; }
+    }
+
+
+    // only MovieFilterStore makes these, from the pref values it holds in memory
+    MovieQuery(String cert, boolean anyCert, String releaseDate, String genrePref, String sortBy,
+               boolean querySpecificYear) {
+        this.cert = cert;
+        this.anyCert = anyCert;
+
+        // if you don't specify a min number of votes, you end up with really bogus
+        // results, esp when querying by highest rated, because even a single vote of
+        // 10/10 for some oddball movie will be returned..
+        // there are few NC-17 movies, so lower min vote count, arbitrarily set the min num votes for all other
+        this.minVoteCount = cert.equals("NC-17") ? 15 : 20;
+
+        // a year typed while the switch is off is not part of the query at all
+        this.releaseDate = querySpecificYear ? releaseDate.trim() : "";
+        this.years = querySpecificYear ? parseYears(this.releaseDate) : Collections.<YearRange>emptyList();
+        this.genreIds = parseGenreIds(genrePref);
+        this.sortBy = sortBy;
+        this.querySpecificYear = querySpecificYear;
+        this.key = buildKey();
+    }
+
+
+    // q1;cert=PG-13;years=1990-1999,2005;genres=28,35;sort=popularity.desc, or * for 'any'
+    private String buildKey() {
+        // the parsed years go in the key, so '1990 - 1999' and '1990-1999' are the same query, a year
+        // that could not be parsed goes in as typed, it's its own query, themoviedb returns nothing for it
+        StringBuilder parsedYears = new StringBuilder();
+        for (YearRange range : years) {
+            if(parsedYears.length() > 0) parsedYears.append(',');
+            parsedYears.append(range);
+        }
+        String yearKey = !querySpecificYear ? ANY
+                : !years.isEmpty() ? parsedYears.toString()
+                : "'" + releaseDate.replace(';', ',') + "'";
+
+        StringBuilder genreKey = new StringBuilder();
+        for (int genreId : genreIds) {
+            if(genreKey.length() > 0) genreKey.append(',');
+            genreKey.append(genreId);
+        }
+
+        return KEY_VERSION
+                + ";cert=" + (anyCert ? ANY : cert)
+                + ";years=" + yearKey
+                + ";genres=" + (genreIds.length == 0 ? ANY : genreKey)
+                + ";sort=" + sortBy;
+    }
+
+
+    /**
+     * Use to tell whether this query can return anything at all before sending it.
+     *
+     * @return false if the year switch is on but the year pref is not a valid year or range of years
+     */
+    boolean hasValidYears() {
+        return !querySpecificYear || !years.isEmpty();
+    }
+
+
+    /**
+     * Checks what the user typed in the year pref before it is saved.
+     *
+     * @param yearPref like '1999', '1990-1999' or '1985, 1990-1995'
+     * @return true if every part of it is a year, or range of years, from MIN_RELEASE_YEAR to
+     * MAX_RELEASE_YEAR
+     */
+    static boolean isValidYearPref(String yearPref) {
+        return !parseYears(yearPref.trim()).isEmpty();
+    }
+
+
+    /**
+     * Gets the certification back out of a key, so the movies stored for a query can be known to
+     * have that rating without storing the rating separately.
+     *
+     * @param key a MovieQuery key
+     * @return the cert, or null for 'Any Rating' and for anything that is not a current MovieQuery key
+     */
+    static String certOf(String key) {
+        String prefix = KEY_VERSION + ";cert=";
+        if(key == null || !key.startsWith(prefix)) return null;
+
+        int end = key.indexOf(';', prefix.length());
+        String cert = (end == -1) ? null : key.substring(prefix.length(), end);
+        return ANY.equals(cert) ? null : cert;
+    }
+
+
+    // the key is canonical, so equal keys mean the same movies would be fetched
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MovieQuery && key.equals(((MovieQuery) o).key);
+    }
+
+    @Override
+    public int hashCode() { return key.hashCode(); } // String.hashCode is spelled out in the JLS, so it's stable too
+
+    @Override
+    public String toString() { return key; }
+
+
+    // '28' or '28,35', anything that is not a genre id (like -1 for 'Any Genre') is dropped, so
+    // theMovieDbFetcher will know to ignore the genre when the result is empty
+    private static int[] parseGenreIds(String genrePref) {
+        List<Integer> ids = new ArrayList<>();
+        for (String token : genrePref.split(",")) {
+            try {
+                int id = Integer.valueOf(token.trim());
+                if(id >= 0 && !ids.contains(id)) ids.add(id);
+            }
+            catch (NumberFormatException nfe) {
+                // not a genre id, skip it
+            }
+        }
+
+        int[] genreIds = new int[ids.size()];
+        for (int i = 0; i < genreIds.length; i++) genreIds[i] = ids.get(i);
+        Arrays.sort(genreIds); // so the key does not depend on the order they were picked in
+        return genreIds;
+    }
+
+
+    // '1999', '1990-1999' or '1985, 1990-1995', returns the ranges sorted with overlaps joined,
+    // or an empty list if any part of it is not a year or a range of years themoviedb could have
+    private static List<YearRange> parseYears(String yearPref) {
+        List<YearRange> ranges = new ArrayList<>();
+
+        for (String token : yearPref.split(",")) {
+            String[] ends = token.split("-");
+            try {
+                if(ends.length == 1) {
+                    int year = Integer.valueOf(ends[0].trim());
+                    ranges.add(new YearRange(year, year));
+                }
+                else if(ends.length == 2) {
+                    int from = Integer.valueOf(ends[0].trim());
+                    int to = Integer.valueOf(ends[1].trim());
+                    ranges.add(new YearRange(Math.min(from, to), Math.max(from, to)));
+                }
+                else {
+                    return Collections.emptyList();
+                }
+            }
+            catch (NumberFormatException nfe) {
+                return Collections.emptyList();
+            }
+
+            YearRange added = ranges.get(ranges.size() - 1);
+            if(added.from < MIN_RELEASE_YEAR || added.to > MAX_RELEASE_YEAR) {
+                return Collections.emptyList(); // '19' or '20155', not a typo worth a network call
+            }
+        }
+
+        Collections.sort(ranges, new Comparator<YearRange>() {
+            @Override
+            public int compare(YearRange lhs, YearRange rhs) {
+                return lhs.from < rhs.from ? -1 : (lhs.from == rhs.from ? 0 : 1);
+            }
+        });
+
+        // join ranges that overlap or touch, 1990-1994 and 1995-1999 is really just 1990-1999
+        List<YearRange> joined = new ArrayList<>();
+        for (YearRange range : ranges) {
+            YearRange last = joined.isEmpty() ? null : joined.get(joined.size() - 1);
+            if(last != null && range.from <= last.to + 1) {
+                joined.set(joined.size() - 1, new YearRange(last.from, Math.max(last.to, range.to)));
+            }
+            else {
+                joined.add(range);
+            }
+        }
+        return Collections.unmodifiableList(joined);
+    }
+
+
+}
@@ -0,0 +1,192 @@
+package com.nate.popmoviess1;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.squareup.picasso.Picasso;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Refreshes MovieTheater's movie list in the background every few hours, so the next time the user
+ * opens the app the grid is already fresh and the first screen of posters is already in Picasso's
+ * cache.  It re-runs whatever movie filters are currently in sharedPrefs.
+ *
+ * <p>
+ * To keep the cost down the refresh is a conditional request: the ETag from the last refresh is sent
+ * along, and if the results have not changed themoviedb answers 304 and nothing else happens.  The
+ * alarm is inexact and does not wake the device, and the refresh is skipped entirely when the network
+ * is metered or the battery is low and not charging.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher#fetchMoviesIfModified(MovieQuery, String)
+ */
+public class MovieRefreshService extends IntentService {
+    private static final String LOGTAG = SingleFragmentActivity.N8LOG + "MovieRefreshService";
+
+    private static final long REFRESH_INTERVAL_MS = AlarmManager.INTERVAL_HALF_DAY / 2; // every 6 hours
+    private static final int MIN_BATTERY_PCT = 20; // below this, only refresh while charging
+    private static final int FIRST_SCREEN_POSTER_COUNT = 12; // enough posters to fill the first screen on a tablet
+
+    private static final String ETAG_SHAREDPREFS_KEY = "movierefreshservice_etag";
+    private static final String ETAG_FILTER_KEY_SHAREDPREFS_KEY = "movierefreshservice_etag_filter_key";
+
+
+    public static Intent newIntent(Context context) {
+        return new Intent(context, MovieRefreshService.class);
+    }
+
+
+    public MovieRefreshService() {
+        super(LOGTAG);
+    }
+
+
+    /**
+     * Turns the periodic refresh on or off.  Safe to call every time the app starts, setting an alarm
+     * that is already set just replaces it.
+     *
+     * @param context any context
+     * @param isOn true to schedule the refresh, false to cancel it
+     */
+    public static void setServiceAlarm(Context context, boolean isOn) {
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, newIntent(context), 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        if(isOn) {
+            // ELAPSED_REALTIME (not _WAKEUP) so the refresh waits until the device is awake anyway
+            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + REFRESH_INTERVAL_MS, REFRESH_INTERVAL_MS, pendingIntent);
+        }
+        else {
+            alarmManager.cancel(pendingIntent);
+            pendingIntent.cancel();
+        }
+    }
+
+
+    public static boolean isServiceAlarmOn(Context context) {
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, newIntent(context),
+                PendingIntent.FLAG_NO_CREATE);
+        return pendingIntent != null;
+    }
+
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if(!isNetworkOkForBackgroundWork() || !isBatteryOkForBackgroundWork()) {
+            Log.i(LOGTAG, "in onHandleIntent, skipping refresh because of network or battery state");
+            return;
+        }
+
+        MovieTheater movieTheater = MovieTheater.get(this);
+        movieTheater.awaitLoaded(); // the alarm may have started the process, and getEtag needs the stored list
+        MovieQuery filters = MovieFilterStore.get(this).getQuery();
+        String etag = getEtag(this, filters.key);
+
+        TheMovieDbFetcher.ConditionalResult<List<Movie>> result;
+        try {
+            result = new TheMovieDbFetcher(this).fetchMoviesIfModified(filters, etag);
+        } catch (IOException ioe) {
+            Log.e(LOGTAG, "Failed to refresh movies", ioe);
+            return;
+        }
+
+        if(!result.notModified) {
+            Log.i(LOGTAG, "in onHandleIntent, movie list changed, updating MovieTheater");
+            movieTheater.updateMovies(result.body, filters.key);
+            // the service stops when this returns, and the process may go with it, so wait until the
+            // list is on disk, and only then keep its ETag
+            movieTheater.awaitWrites();
+            saveEtag(this, filters.key, result.etag);
+        }
+
+        prefetchFirstScreenPosters(movieTheater.getSnapshot());
+    }
+
+
+    /**
+     * Use to get the ETag to send with a conditional fetch of the movie list.  Only returns one if it
+     * belongs to these filters and the list MovieTheater has is also for these filters, otherwise a
+     * 304 would mean 'keep a list that is for some other filters'.  Shared with the revalidating
+     * fetch at launch, see RetainedFetchFragment.  Call after MovieTheater.awaitLoaded.
+     *
+     * @param context any context
+     * @param filterKey the key of the filters about to be fetched
+     * @return the ETag, or null if the list should be fetched unconditionally
+     */
+    static String getEtag(Context context, String filterKey) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if(filterKey.equals(sharedPrefs.getString(ETAG_FILTER_KEY_SHAREDPREFS_KEY, null))
+                && filterKey.equals(MovieTheater.get(context).getSnapshot().getFilterKey())) {
+            return sharedPrefs.getString(ETAG_SHAREDPREFS_KEY, null);
+        }
+        return null;
+    }
+
+
+    // call once MovieTheater has the list the ETag came with
+    static void saveEtag(Context context, String filterKey, String etag) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(ETAG_SHAREDPREFS_KEY, etag)
+                .putString(ETAG_FILTER_KEY_SHAREDPREFS_KEY, filterKey)
+                .apply();
+    }
+
+
+    // warms Picasso's cache so the first screen of the grid draws without waiting on the network
+    private void prefetchFirstScreenPosters(MovieTheater.Snapshot snapshot) {
+        int count = Math.min(FIRST_SCREEN_POSTER_COUNT, snapshot.size());
+        for (int i = 0; i < count; i++) {
+            Picasso.with(this)
+                    .load(snapshot.getMovies().get(i).getPosterUrl())
+                    .priority(Picasso.Priority.LOW) // never ahead of a poster someone is looking at
+                    .fetch();
+        }
+    }
+
+
+    // connected, and not metered.  Data Saver (API 24) is not checked on its own, this builds against
+    // API 23, but it only ever restricts metered networks, and those are skipped anyway
+    private boolean isNetworkOkForBackgroundWork() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+
+        return networkInfo != null && networkInfo.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+
+    // charging, or at least MIN_BATTERY_PCT left
+    private boolean isBatteryOkForBackgroundWork() {
+        // ACTION_BATTERY_CHANGED is sticky, so this just reads the last broadcast, no receiver is registered
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if(battery == null) return true; // can't tell, don't hold things up
+
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int pct = (level >= 0 && scale > 0) ? (level * 100 / scale) : 100;
+
+        return charging || pct >= MIN_BATTERY_PCT;
+    }
+
+
+}
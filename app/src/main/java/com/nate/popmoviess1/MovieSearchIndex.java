@@ -0,0 +1,502 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * An on-device search index over every movie MovieTheater has ever held, not just the current list,
+ * so a movie seen under some other set of filters last week can still be found by typing a few
+ * letters of its title.  Searching never touches the network.
+ *
+ * <p>
+ * It is an inverted index: every word in a movie's title, original title and overview points to a
+ * sorted list of the movies it appears in.  The words are kept sorted, so all the words that start
+ * with what the user has typed so far are one contiguous slice, and a query like 'star wa' is just
+ * 'movies with a word starting with star' AND 'movies with a word starting with wa'.  Each of those
+ * sets is a BitSet over the movies, so the AND is a few machine words per 64 movies, which keeps even
+ * a 50k movie index answering in a few ms.
+ * </p>
+ *
+ * <p>
+ * The index listens to MovieTheater and only indexes the movies that changed, on a background
+ * thread.  That thread is the only one that ever touches the index itself.  When it is done with a
+ * batch it publishes a read only copy, which search uses without taking any lock, so typing is never
+ * held up by indexing or by the disk.  The copy shares the posting arrays with the index, an array is
+ * only copied the next time a word in it changes.
+ * </p>
+ *
+ * <p>
+ * The published copy is saved to a single binary file, with the posting lists delta and varint
+ * encoded, so loading it is just reading numbers back in, nothing is tokenized again.  Saves wait
+ * SAVE_DELAY_SECONDS after a change, so paging through a few lists writes the file once, not once a page.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieTheater.OnMoviesChangedListener
+ */
+public class MovieSearchIndex implements MovieTheater.OnMoviesChangedListener {
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+
+    private static final String INDEX_FILE_NAME = "movie_search_index.bin";
+    private static final int FILE_MAGIC = 0x4e38534d; // 'N8SM'
+    private static final int FILE_VERSION = 1;
+    private static final int MIN_INDEXED_WORD_LENGTH = 2; // 'a' and 'i' match nearly everything anyway
+    private static final long SAVE_DELAY_SECONDS = 10;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern ACCENTS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static volatile MovieSearchIndex sMovieSearchIndex;
+
+    private final File mIndexFile;
+    // one thread does all the indexing and saving, in order, so neither ever races the other
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // what search reads, replaced as a whole every time mExecutor finishes a batch
+    private volatile Searchable mSearchable = Searchable.EMPTY;
+
+    // everything below is only ever touched on mExecutor
+    private final List<Movie> mDocs = new ArrayList<>(); // doc number -> Movie, doc numbers never change
+    private final Map<Integer, Integer> mDocsById = new HashMap<>(); // themoviedb id -> doc number
+    private final TreeMap<String, Postings> mTitleWords = new TreeMap<>(); // title and original_title
+    private final TreeMap<String, Postings> mOverviewWords = new TreeMap<>();
+    private boolean mSavePending;
+
+
+    // a growable, sorted array of doc numbers, copied before a change once a Searchable shares it
+    private static final class Postings {
+        int[] mDocs = new int[4];
+        int mSize;
+        boolean mShared;
+
+        void add(int doc) {
+            int index = Arrays.binarySearch(mDocs, 0, mSize, doc);
+            if(index >= 0) return; // already there
+            index = -index - 1;
+
+            if(mShared || mSize == mDocs.length) {
+                mDocs = Arrays.copyOf(mDocs, mSize == mDocs.length ? mSize * 2 : mDocs.length);
+                mShared = false;
+            }
+            System.arraycopy(mDocs, index, mDocs, index + 1, mSize - index);
+            mDocs[index] = doc;
+            mSize++;
+        }
+
+        void remove(int doc) {
+            int index = Arrays.binarySearch(mDocs, 0, mSize, doc);
+            if(index < 0) return;
+            if(mShared) {
+                mDocs = mDocs.clone();
+                mShared = false;
+            }
+            System.arraycopy(mDocs, index + 1, mDocs, index, mSize - index - 1);
+            mSize--;
+        }
+    }
+
+
+    // a read only copy of one of the word maps, sorted words and the postings that go with them
+    private static final class Words {
+        final String[] mWords;
+        final int[][] mPostings; // only the first mSizes[i] docs of mPostings[i] belong to mWords[i]
+        final int[] mSizes;
+
+        // shares every non empty Postings array, they are marked so the index copies before changing them
+        Words(TreeMap<String, Postings> words) {
+            int nonEmpty = 0;
+            for (Postings postings : words.values()) if(postings.mSize > 0) nonEmpty++;
+
+            mWords = new String[nonEmpty];
+            mPostings = new int[nonEmpty][];
+            mSizes = new int[nonEmpty];
+            int i = 0;
+            for (Map.Entry<String, Postings> entry : words.entrySet()) {
+                Postings postings = entry.getValue();
+                if(postings.mSize == 0) continue; // every movie that had this word was re-indexed without it
+
+                postings.mShared = true;
+                mWords[i] = entry.getKey();
+                mPostings[i] = postings.mDocs;
+                mSizes[i] = postings.mSize;
+                i++;
+            }
+        }
+
+        // the words that start with prefix are one contiguous run of the sorted array
+        BitSet prefixMatches(String prefix) {
+            BitSet bits = new BitSet();
+            int i = Arrays.binarySearch(mWords, prefix);
+            if(i < 0) i = -i - 1;
+            for (; i < mWords.length && mWords[i].startsWith(prefix); i++) {
+                for (int d = 0; d < mSizes[i]; d++) bits.set(mPostings[i][d]);
+            }
+            return bits;
+        }
+    }
+
+
+    // everything search needs, never changed once it is published
+    private static final class Searchable {
+        static final Searchable EMPTY = new Searchable(new ArrayList<Movie>(),
+                new TreeMap<String, Postings>(), new TreeMap<String, Postings>());
+
+        final Movie[] mDocs;
+        final Words mTitleWords;
+        final Words mOverviewWords;
+
+        Searchable(List<Movie> docs, TreeMap<String, Postings> titleWords, TreeMap<String, Postings> overviewWords) {
+            mDocs = docs.toArray(new Movie[docs.size()]);
+            mTitleWords = new Words(titleWords);
+            mOverviewWords = new Words(overviewWords);
+        }
+    }
+
+
+    private MovieSearchIndex(Context context) {
+        mIndexFile = new File(context.getFilesDir(), INDEX_FILE_NAME);
+
+        final MovieTheater movieTheater = MovieTheater.get(context);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                // whatever MovieTheater restored may never have made it into the saved index
+                addMovies(movieTheater.getMovies());
+            }
+        });
+        movieTheater.addOnMoviesChangedListener(this); // for as long as the process lives, like this singleton
+    }
+
+
+    /**
+     * Use to access the MovieSearchIndex singleton.  If it does not exist, it will be created and
+     * will start loading the saved index in the background.
+     *
+     * @param context any context, only the application context is kept
+     * @return the single MovieSearchIndex instance
+     */
+    public static MovieSearchIndex get(Context context) {
+        MovieSearchIndex index = sMovieSearchIndex;
+        if(index == null) {
+            synchronized (MovieSearchIndex.class) {
+                index = sMovieSearchIndex;
+                if(index == null) {
+                    index = new MovieSearchIndex(context.getApplicationContext());
+                    sMovieSearchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * Indexes the movies in MovieTheater's new list.  Only that list is looked at, so the work depends
+     * on the size of the new list, not on how big the index already is.
+     *
+     * @param event describes what changed in MovieTheater
+     */
+    @Override
+    public void onMoviesChanged(MovieTheater.MoviesChangedEvent event) {
+        final List<Movie> changed = event.getSnapshot().getMovies(); // immutable, safe to hand to mExecutor
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                addMovies(changed);
+            }
+        });
+    }
+
+
+    /**
+     * Finds the movies whose title, original title or overview have a word starting with every word
+     * in query, so it works as the user types.  Movies that match entirely on their title come
+     * first, then the rest, each group most popular first.  Fast enough to call on the main thread,
+     * it never waits on the indexing thread.
+     *
+     * @param query what the user has typed so far
+     * @param limit the most movies to return
+     * @return the matching movies, empty if query has no words in it
+     */
+    public List<Movie> search(String query, int limit) {
+        Set<String> queryWords = new LinkedHashSet<>(tokenize(query, 1));
+        if(queryWords.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        Searchable searchable = mSearchable; // the same copy for the whole search
+        BitSet inTitles = null; // docs where every word so far matched a title word
+        BitSet anywhere = null; // docs where every word so far matched a title or overview word
+
+        for (String word : queryWords) {
+            BitSet titleBits = searchable.mTitleWords.prefixMatches(word);
+            BitSet wordBits = searchable.mOverviewWords.prefixMatches(word);
+            wordBits.or(titleBits);
+
+            if(inTitles == null) {
+                inTitles = titleBits;
+                anywhere = wordBits;
+            } else {
+                inTitles.and(titleBits);
+                anywhere.and(wordBits);
+            }
+            if(anywhere.isEmpty()) return Collections.emptyList(); // nothing can match the rest either
+        }
+
+        List<Movie> results = new ArrayList<>(Math.min(limit, anywhere.cardinality()));
+        addMostPopular(searchable.mDocs, inTitles, limit, results);
+        anywhere.andNot(inTitles); // the rest only matched somewhere in an overview
+        addMostPopular(searchable.mDocs, anywhere, limit - results.size(), results);
+        return results;
+    }
+
+
+    // adds the limit most popular docs in matches to results, most popular first, without sorting
+    // every match, a common word can match thousands of movies when only a screen of them are shown
+    private static void addMostPopular(Movie[] docs, BitSet matches, int limit, List<Movie> results) {
+        if(limit <= 0 || matches.isEmpty()) return;
+
+        Comparator<Movie> byPopularity = MovieListMerger.comparatorFor("popularity.desc");
+        // the least popular of the best so far is at the head, so it's the one that gets pushed out
+        PriorityQueue<Movie> best = new PriorityQueue<>(limit, Collections.reverseOrder(byPopularity));
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            Movie movie = docs[doc];
+            if(best.size() < limit) {
+                best.add(movie);
+            } else if(byPopularity.compare(movie, best.peek()) < 0) {
+                best.poll();
+                best.add(movie);
+            }
+        }
+
+        List<Movie> sorted = new ArrayList<>(best);
+        Collections.sort(sorted, byPopularity);
+        results.addAll(sorted);
+    }
+
+
+    // lower case, accents stripped ('Amélie' is found by 'amelie'), split on anything that is not a
+    // letter or a digit
+    private static List<String> tokenize(String text, int minLength) {
+        if(text == null) return Collections.emptyList();
+
+        String folded = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> words = new ArrayList<>();
+        for (String word : NON_WORD.split(folded.toLowerCase(Locale.US))) {
+            if(word.length() >= minLength) words.add(word);
+        }
+        return words;
+    }
+
+
+    // indexes new movies and re-indexes movies whose metadata changed, runs on mExecutor only
+    private void addMovies(List<Movie> movies) {
+        if(movies.isEmpty()) return;
+
+        for (Movie movie : movies) {
+            Integer doc = mDocsById.get(movie.id);
+            if(doc == null) {
+                doc = mDocs.size();
+                mDocs.add(movie);
+                mDocsById.put(movie.id, doc);
+            } else {
+                unindex(mDocs.get(doc), doc); // take out whatever the old metadata said
+                mDocs.set(doc, movie);
+            }
+            index(movie, doc);
+        }
+        publish();
+
+        if(mSavePending) return; // the save already scheduled will pick these up too
+        mSavePending = true;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mSavePending = false;
+                save(mSearchable);
+            }
+        }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    // hands search a new read only copy, runs on mExecutor only
+    private void publish() {
+        mSearchable = new Searchable(mDocs, mTitleWords, mOverviewWords);
+    }
+
+
+    private void index(Movie movie, int doc) {
+        for (String word : tokenize(movie.title, MIN_INDEXED_WORD_LENGTH)) postingsFor(mTitleWords, word).add(doc);
+        for (String word : tokenize(movie.original_title, MIN_INDEXED_WORD_LENGTH)) postingsFor(mTitleWords, word).add(doc);
+        for (String word : tokenize(movie.overview, MIN_INDEXED_WORD_LENGTH)) postingsFor(mOverviewWords, word).add(doc);
+    }
+
+    private void unindex(Movie movie, int doc) {
+        for (String word : tokenize(movie.title, MIN_INDEXED_WORD_LENGTH)) postingsFor(mTitleWords, word).remove(doc);
+        for (String word : tokenize(movie.original_title, MIN_INDEXED_WORD_LENGTH)) postingsFor(mTitleWords, word).remove(doc);
+        for (String word : tokenize(movie.overview, MIN_INDEXED_WORD_LENGTH)) postingsFor(mOverviewWords, word).remove(doc);
+    }
+
+    private static Postings postingsFor(TreeMap<String, Postings> words, String word) {
+        Postings postings = words.get(word);
+        if(postings == null) {
+            postings = new Postings();
+            words.put(word, postings);
+        }
+        return postings;
+    }
+
+
+    /**
+     * Writes searchable to a temp file and then renames it over the old one, so a crash in the
+     * middle of a save never leaves a half written index behind.  searchable never changes, so
+     * nothing has to be locked while it is written.  Runs on mExecutor only.
+     */
+    private void save(Searchable searchable) {
+        File tempFile = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+
+            out.writeInt(searchable.mDocs.length);
+            for (Movie movie : searchable.mDocs) movie.writeTo(out);
+            writeWords(out, searchable.mTitleWords);
+            writeWords(out, searchable.mOverviewWords);
+            out.close();
+            out = null;
+
+            if(!tempFile.renameTo(mIndexFile)) throw new IOException("Could not rename " + tempFile);
+            Log.i(LOGTAG, "in save, saved index, bytes: " + mIndexFile.length());
+
+        } catch (IOException ioe) {
+            Log.e(LOGTAG, "Failed to save the search index", ioe);
+        } finally {
+            if(out != null) {
+                try { out.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+
+    // reads back what save wrote, a missing or unreadable file just means starting with an empty
+    // index, runs on mExecutor only, before anything has been indexed
+    private void load() {
+        if(!mIndexFile.exists()) return;
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+            if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                Log.w(LOGTAG, "in load, index file is from some other version, starting over");
+                return;
+            }
+
+            int docCount = in.readInt();
+            for (int doc = 0; doc < docCount; doc++) {
+                Movie movie = Movie.readFrom(in);
+                mDocs.add(movie);
+                mDocsById.put(movie.id, doc);
+            }
+            readWords(in, mTitleWords);
+            readWords(in, mOverviewWords);
+            publish();
+            Log.i(LOGTAG, "in load, loaded index, movies: " + mDocs.size());
+
+        } catch (IOException ioe) {
+            Log.e(LOGTAG, "Failed to load the search index, starting over", ioe);
+            mDocs.clear();
+            mDocsById.clear();
+            mTitleWords.clear();
+            mOverviewWords.clear();
+        } finally {
+            if(in != null) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+
+    // each word, then its postings as gaps between doc numbers, small gaps take a single byte
+    private static void writeWords(DataOutput out, Words words) throws IOException {
+        out.writeInt(words.mWords.length);
+
+        for (int w = 0; w < words.mWords.length; w++) {
+            int[] docs = words.mPostings[w];
+            out.writeUTF(words.mWords[w]);
+            writeVarInt(out, words.mSizes[w]);
+            int previous = 0;
+            for (int i = 0; i < words.mSizes[w]; i++) {
+                writeVarInt(out, docs[i] - previous);
+                previous = docs[i];
+            }
+        }
+    }
+
+    private static void readWords(DataInput in, TreeMap<String, Postings> words) throws IOException {
+        int wordCount = in.readInt();
+        for (int w = 0; w < wordCount; w++) {
+            String word = in.readUTF();
+            Postings postings = new Postings();
+            postings.mSize = readVarInt(in);
+            postings.mDocs = new int[Math.max(4, postings.mSize)];
+            int doc = 0;
+            for (int i = 0; i < postings.mSize; i++) {
+                doc += readVarInt(in);
+                postings.mDocs[i] = doc;
+            }
+            words.put(word, postings);
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+
+}
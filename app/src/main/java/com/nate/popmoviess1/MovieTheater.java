@@ -1,33 +1,82 @@
 package com.nate.popmoviess1;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.nate.popmoviess1.MovieDbSchema.CertificationsTable;
+import com.nate.popmoviess1.MovieDbSchema.GenresTable;
+import com.nate.popmoviess1.MovieDbSchema.MovieGenresTable;
+import com.nate.popmoviess1.MovieDbSchema.MoviesTable;
+import com.nate.popmoviess1.MovieDbSchema.QueryKeysTable;
+import com.nate.popmoviess1.MovieDbSchema.QueryResultsTable;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A singleton class that stores the list of <code>Movie</code>, <code>Genre</code>, and
  * <code>Certificaiton</code> (G, PG, R, etc) objects for this app.  These objects and this
  * MovieTheater make up the 'Model' layer of this app.  I have attempted to keep MovieTheater from
  * relying on any details of any other classes in this app, the only thing it needs is a Context
- * reference so it can get a handle on sharedPrefs.
+ * reference so it can open the database and get a handle on MovieFilterStore.
  *
  * <p>
- * When <code>MovieTheater.updateMovies</code> is called, the list is
- * updated both in this class locally, and also written to sharedPreferences using Gson.
+ * MovieTheater is a cache in front of a SQLite database (see MovieDbSchema).  When
+ * <code>MovieTheater.updateMovies</code> is called, the list is updated both in this class locally,
+ * and also written to the database in one transaction on a background thread: every movie is stored once in the movies
+ * table, and the query_results table remembers which movies the current filters returned, in order.
  * This is necessary to ensure that any Activity at any time can call <code>MovieTheater.get</code>
  * and rely on it to have a valid list of movies.  So if Android kills MovieTheater, it will come
- * back to life, like a zombie.  In stage 2 of this project, I will have the list of Genres and Certs
- * also be written to persistent memory, and MovieTheater will be initialized before any Activity
- * can get it's hands on it.  It's a bit of a confusing initialization mess at this time.
+ * back to life, like a zombie.  The Genre and Certification lists are stored there as well now, so
+ * they come back to life too.  Movies from earlier filter selections stay in the database, and
+ * queryLocalMovies can filter them without the network.  Only the MAX_STORED_QUERIES most recently
+ * written query results are kept, and none older than MAX_STORED_QUERY_AGE_MILLIS, the rest are
+ * dropped every time the database is loaded.
+ * </p>
+ *
+ * <p>
+ * MovieTheater is first asked for on the main thread, so the constructor does not touch the disk:
+ * opening the database (and upgrading it, when the app was just updated) and loading the stored lists
+ * all happen on mDiskWriter.  Until that is done the Snapshot is an empty list with no filter key,
+ * and then the stored list is published like any other, listeners are told it replaced the list.
+ * Background code that needs the stored list, not just whatever is there so far, calls awaitLoaded.
+ * </p>
+ *
+ * <p>
+ * The movie list is published as an immutable <code>MovieTheater.Snapshot</code> through a volatile
+ * reference.  Readers (adapters on the UI thread) never lock, they just grab the current snapshot
+ * and hold on to it.  Writers (AsyncTasks or anything else off the main thread) build a complete new
+ * snapshot and swap it in under a small lock that only writers ever take, so a reader can never see a
+ * half built list, and a producer never waits on the UI.
+ * </p>
+ *
+ * <p>
+ * Anything that displays the movie list can register an <code>OnMoviesChangedListener</code> and
+ * will be told, on the main thread, every time the list is replaced.  Each event carries the version
+ * it applies to, so a listener that missed an event can tell and just reload the whole Snapshot
+ * instead.  Listeners that are in step can diff the two lists themselves, see MovieListDiff.
  * </p>
  *
  * Movie and Certification objects live inside this class as inner classes, mostly because they are
@@ -37,13 +86,85 @@ import java.util.List;
  */
 public class MovieTheater {
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
-    private final String MOVIE_LIST_SHAREDPREFS_KEY = "movietheater_movie_list_key";
+    private final String MOVIE_LIST_SHAREDPREFS_KEY = "movietheater_movie_list_key"; // old json list, only read to move it into the database
+    private final String MOVIE_LIST_FILTER_KEY_SHAREDPREFS_KEY = "movietheater_movie_list_filter_key";
+    public static final String PREVIEW_FILTER_KEY_PREFIX = "preview|"; // filter key of a list from previewMovies
+    private static final int WRITTEN_LISTS_TO_REMEMBER = 4;
+    private static final int MAX_STORED_QUERIES = 20; // query results kept in the database, newest first
+    private static final long MAX_STORED_QUERY_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000; // 30 days
+
+    private final MovieFilterStore mFilterStore; // the filter key of the stored list goes in here, not straight to sharedPrefs
+    private volatile SQLiteDatabase mDatabase; // opened on mDiskWriter, SQLiteDatabase does its own locking after that
+    private final CountDownLatch mLoaded = new CountDownLatch(1); // counted down once the stored lists are loaded
+    // every database write happens here, in order, so nobody on the main thread waits on the disk
+    private final ExecutorService mDiskWriter = Executors.newSingleThreadExecutor();
+    private final Map<String, List<Movie>> mPendingSaves = new LinkedHashMap<>(); // guarded by itself, filter key -> list
+    // mDiskWriter only: the last list written for a few recent filter keys, so writeMovieList can
+    // write just what changed, the lists are Snapshot lists so they never change under it
+    private final Map<String, List<Movie>> mWrittenLists = new LinkedHashMap<String, List<Movie>>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Movie>> eldest) {
+            return size() > WRITTEN_LISTS_TO_REMEMBER;
+        }
+    };
+    private static volatile MovieTheater sMovieTheater; // there can be only one and it will never change
+    private volatile Snapshot mSnapshot; // the current movie list, metadata only here, images are downloaded in real time elsewhere
+    private volatile Snapshot mSearchResults; // what the detail pager swipes through after a search result is tapped, memory only
+    private volatile List<Genre> mGenresList; // this list of most available themoviedb genres
+    private volatile List<Certification> mCertifications; // the list of all available themoviedb certifications (G, PG, R, etc)
+    private volatile boolean mGenresSetThisSession; // false while mGenresList is only what the database had
+    private volatile boolean mCertificationsSetThisSession;
+    private volatile LocalMovieQueryEngine mLocalQueryEngine; // null until needed, and again whenever the stored movies change
+    private final Object mWriteLock = new Object(); // only ever taken by writers, readers just read mSnapshot
+    private final List<OnMoviesChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper()); // listeners are always called on the main thread
+
+
+    /**
+     * An immutable, versioned view of MovieTheater's movie list.  Once a Snapshot has been published
+     * nothing about it ever changes, so it is safe to hand to an adapter on the UI thread while a
+     * background thread is busy building the next one.  The id index makes <code>getMovie</code>
+     * a map lookup instead of a walk through the list.
+     */
+    public static final class Snapshot {
+        private final long mVersion; // increases by one every time a new snapshot is published
+        private final List<Movie> mMovies; // unmodifiable
+        private final Map<Integer, Integer> mPositionsById; // unmodifiable, themoviedb movie id -> list position
+        private final String mFilterKey; // identifies the filter selection that produced this list, may be null
+
+        private Snapshot(long version, List<Movie> movies, String filterKey) {
+            mVersion = version;
+            mFilterKey = filterKey;
+
+            List<Movie> moviesCopy = new ArrayList<>(movies);
+            Map<Integer, Integer> positionsById = new HashMap<>(moviesCopy.size() * 2);
+            for (int i = 0; i < moviesCopy.size(); i++) {
+                positionsById.put(moviesCopy.get(i).id, i);
+            }
+
+            mMovies = Collections.unmodifiableList(moviesCopy);
+            mPositionsById = Collections.unmodifiableMap(positionsById);
+        }
+
+        public long getVersion() { return mVersion; }
+
+        public List<Movie> getMovies() { return mMovies; }
 
-    private SharedPreferences mSharedPrefs;
-    private static MovieTheater sMovieTheater; // there can be only one and it will never change
-    private List<Movie> mMoviesList; // the list of movies, metadata only here, images are downloaded in real time elsewhere
-    private List<Genre> mGenresList; // this list of most available themoviedb genres
-    private List<Certification> mCertifications; // the list of all available themoviedb certifications (G, PG, R, etc)
+        public int size() { return mMovies.size(); }
+
+        public Movie getMovie(int id) {
+            Integer position = mPositionsById.get(id);
+            return (position == null) ? null : mMovies.get(position);
+        }
+
+        // returns the position of the movie with the given themoviedb id, or -1 if it's not in this list
+        public int indexOf(int id) {
+            Integer position = mPositionsById.get(id);
+            return (position == null) ? -1 : position;
+        }
+
+        public String getFilterKey() { return mFilterKey; }
+    }
 
 
     /**
@@ -57,6 +178,33 @@ public class MovieTheater {
             this.id = id;
             this.name = name;
         }
+
+        // one object from themoviedb's 'genres' array, like {"id": 28, "name": "Action"}
+        static final JsonCodec<Genre> JSON_CODEC = new JsonCodec<Genre>() {
+            @Override
+            Genre read(JsonReader reader) throws IOException {
+                int id = 0;
+                String name = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id": id = nextInt(reader); break;
+                        case "name": name = nextString(reader); break;
+                        default: reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return new Genre(id, name);
+            }
+
+            @Override
+            void write(JsonWriter writer, Genre genre) throws IOException {
+                writer.beginObject();
+                writer.name("id").value(genre.id);
+                writer.name("name").value(genre.name);
+                writer.endObject();
+            }
+        };
     }
 
 
@@ -77,6 +225,81 @@ public class MovieTheater {
         }
 
         public int compareTo(@NonNull Certification cert) { return (cert.order >= order) ? -1 : 1; }
+
+        // one object from a country's certifications array, like {"certification": "PG", "meaning": "..", "order": 2}
+        static final JsonCodec<Certification> JSON_CODEC = new JsonCodec<Certification>() {
+            @Override
+            Certification read(JsonReader reader) throws IOException {
+                String name = null;
+                String meaning = null;
+                int order = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "certification": name = nextString(reader); break;
+                        case "meaning": meaning = nextString(reader); break;
+                        case "order": order = nextInt(reader); break;
+                        default: reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return new Certification(name, meaning, order);
+            }
+
+            @Override
+            void write(JsonWriter writer, Certification cert) throws IOException {
+                writer.beginObject();
+                writer.name("certification").value(cert.name);
+                writer.name("meaning").value(cert.meaning);
+                writer.name("order").value(cert.order);
+                writer.endObject();
+            }
+        };
+    }
+
+
+    /**
+     * Describes a single change to MovieTheater's movie list.  <code>getPreviousVersion</code> is the
+     * version of the Snapshot the change was applied to, so a listener that is holding a Snapshot of
+     * that exact version can diff the two lists, anybody else should reload <code>getSnapshot</code>.
+     *
+     * <p>
+     * There used to be appended-range and single-movie-updated events too, but nothing ever sent
+     * them: this app only ever fetches the first page of a query, and a refresh, a preview or the
+     * stored list at launch always hands over a whole new list.  MovieListDiff works out the same
+     * inserts, removes and changes from the two lists, so every event is TYPE_REPLACED.
+     * </p>
+     */
+    public static final class MoviesChangedEvent {
+        public static final int TYPE_REPLACED = 0; // the whole list is new
+
+        private final int mType;
+        private final long mPreviousVersion;
+        private final Snapshot mSnapshot; // the Snapshot after the change was applied
+
+        private MoviesChangedEvent(int type, long previousVersion, Snapshot snapshot) {
+            mType = type;
+            mPreviousVersion = previousVersion;
+            mSnapshot = snapshot;
+        }
+
+        public int getType() { return mType; }
+
+        public long getPreviousVersion() { return mPreviousVersion; }
+
+        public long getVersion() { return mSnapshot.getVersion(); }
+
+        public Snapshot getSnapshot() { return mSnapshot; }
+    }
+
+
+    /**
+     * Implement to be told when MovieTheater's movie list changes.  Always called on the main thread.
+     *
+     * @see MovieTheater#addOnMoviesChangedListener(OnMoviesChangedListener)
+     */
+    public interface OnMoviesChangedListener {
+        void onMoviesChanged(MoviesChangedEvent event);
     }
 
 
@@ -84,34 +307,163 @@ public class MovieTheater {
     private MovieTheater(Context context) {
         Log.i(LOGTAG, "just entered private SINGLETON CONSTRUCTOR");
 
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        mMoviesList = new ArrayList<>(); // ArrayList<Movie> is inferred from mMoviesList declaration
-        mGenresList = new ArrayList<>();
-        mCertifications = new ArrayList<>();
+        mFilterStore = MovieFilterStore.get(context);
+
+        // empty until load publishes what the database has, nothing in here waits on the disk
+        mSnapshot = new Snapshot(0, Collections.<Movie>emptyList(), null);
+        mSearchResults = mSnapshot;
+        mGenresList = Collections.emptyList();
+        mCertifications = Collections.emptyList();
+
+        final Context appContext = context;
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+            }
+        });
+    }
+
+
+    /**
+     * Opens the database, drops old query results, and publishes the stored movie, genre and
+     * certification lists.  Runs on mDiskWriter only, before anything else that uses the database.
+     * Anything set while this was running (a fetch that beat the disk, unlikely as that is) is newer
+     * than what the database has, so it is kept.
+     *
+     * <p>
+     * If the database can't be opened or read (a full disk, a corrupt file), MovieTheater carries on
+     * without it: mDatabase stays null, the lists live in memory only, and every write to the
+     * database is skipped.  The next fetch fills the screen just like the first one after install.
+     * </p>
+     *
+     * @param context the application context
+     */
+    private void load(Context context) {
+        SQLiteDatabase database = null;
+        try {
+            database = new MovieBaseHelper(context).getWritableDatabase();
+            mDatabase = database;
+            loadStoredLists();
+        } catch (SQLiteException e) {
+            Log.e(LOGTAG, "in load, could not open or read the database, movies will only be kept in memory", e);
+            mDatabase = null;
+            if(database != null) database.close();
+        } finally {
+            mLoaded.countDown(); // whatever happened above, nobody waits forever
+        }
+    }
+
 
-        if(!mSharedPrefs.contains(MOVIE_LIST_SHAREDPREFS_KEY)) {
-            // do nothing: the list will be updated the first time MovieGridFragment calls FetchMoviesTask
-            // every time after that, this singleton's mMovies list will be loaded with the
-            // movie list stored in sharedPrefs, so this empty code block should only
-            // ever be reached the first time this app is installed.  Note that is is okay for the
-            // list to exist and have zero entries.. this can happen if the user has selected movie
-            // filters that are too restrictive, just need to avoid a null pointer exception when
-            // setting mMoviesList below
+    // runs on mDiskWriter only, from load
+    private void loadStoredLists() {
 
-            Log.i(LOGTAG, "  and there was no persistent movie list found, so app is being installed" +
-                    " for the first time, or user has persistence turned off, which may break this app" +
-                    " if it is running in phone mode and they left the app while in the movie detail" +
-                    " screen and Android killed this singleton.  At this time this app is not intended" +
-                    " to be run on devices with persistence turned off.");
+        if(mFilterStore.getString(MOVIE_LIST_SHAREDPREFS_KEY, null) != null) {
+            // the app was just updated from the version that kept the list as json in sharedPrefs
+            migrateMovieListFromSharedPrefs();
         }
-        else {
-            // this will typically happen once per 'app session'
-            Log.i(LOGTAG, "  and the local mMovies list is being loaded with whatever movie" +
-                    " list the user had in their sharedPrefs when this singleton was killed");
-            // set the local movie list to whatever was in sharedPrefs
-            mMoviesList = loadMovieList();
+
+        // the list will be empty the first time this app is installed, it will be filled the first
+        // time MovieGridFragment fetches movies.  Note that is is okay for the list to exist and have
+        // zero entries.. this can happen if the user has selected movie filters that are too restrictive
+        String filterKey = mFilterStore.getString(MOVIE_LIST_FILTER_KEY_SHAREDPREFS_KEY, null);
+        pruneQueryResults(filterKey);
+        List<Movie> movies = loadMovieList(filterKey);
+        Log.i(LOGTAG, "  and the local movie list was loaded from the database, size: " + movies.size());
+
+        List<Genre> genres = loadGenres();
+        List<Certification> certs = loadCertifications();
+
+        synchronized (mWriteLock) {
+            if(!mGenresSetThisSession && genres.size() > mGenresList.size()) {
+                mGenresList = Collections.unmodifiableList(genres);
+            }
+            if(!mCertificationsSetThisSession && certs.size() > mCertifications.size()) {
+                mCertifications = Collections.unmodifiableList(certs);
+            }
+
+            Snapshot previous = mSnapshot;
+            if(previous.getVersion() != 0) return; // a newer list has already been published
+
+            Snapshot snapshot = new Snapshot(movies.isEmpty() ? 0 : 1, movies, filterKey);
+            mSnapshot = snapshot;
+            // exactly what the database has for this key, so the next write for it is only the changes
+            mWrittenLists.put(filterKey == null ? "" : filterKey, snapshot.getMovies());
+            if(!movies.isEmpty()) {
+                notifyMoviesChanged(new MoviesChangedEvent(MoviesChangedEvent.TYPE_REPLACED,
+                        previous.getVersion(), snapshot));
+            }
+        }
+    }
+
+
+    /**
+     * Blocks until MovieTheater has loaded what the database had, which starts the moment it is
+     * created.  Call from background threads, the only main thread caller is
+     * MovieDetailPagerActivity restoring its pages after the app was killed, which can't do without.
+     */
+    public void awaitLoaded() {
+        try {
+            mLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // whoever interrupted can decide what to do about it
         }
+    }
+
+
+    /**
+     * Blocks until everything queued for the database so far has been written.  updateMovies and the
+     * other setters return as soon as their write is queued, which is what the main thread wants, but
+     * a background caller that is about to let its process go (MovieRefreshService) has to wait here,
+     * or Android could kill the process before the write ever happens.  Never call on the main thread.
+     */
+    public void awaitWrites() {
+        final CountDownLatch written = new CountDownLatch(1);
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown(); // mDiskWriter is one thread, so every write queued before this is done
+            }
+        });
 
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Deletes the query results that are too many or too old, always keeping the list for keepKey,
+     * which is the one MovieTheater is about to load.  Runs on mDiskWriter only.
+     *
+     * @param keepKey filter key of the stored movie list, may be null
+     */
+    private void pruneQueryResults(String keepKey) {
+        String keep = (keepKey == null) ? "" : keepKey;
+        String oldKeys = "select " + QueryKeysTable.Cols.FILTER_KEY + " from " + QueryKeysTable.NAME
+                + " where " + QueryKeysTable.Cols.FILTER_KEY + " != ? and ("
+                + QueryKeysTable.Cols.WRITTEN_AT + " < ? or " + QueryKeysTable.Cols.FILTER_KEY + " not in ("
+                + "select " + QueryKeysTable.Cols.FILTER_KEY + " from " + QueryKeysTable.NAME
+                + " order by " + QueryKeysTable.Cols.WRITTEN_AT + " desc limit " + MAX_STORED_QUERIES + "))";
+        String[] args = {keep, String.valueOf(System.currentTimeMillis() - MAX_STORED_QUERY_AGE_MILLIS)};
+
+        mDatabase.beginTransaction();
+        try {
+            // query results written before query_keys existed have no row there at all
+            int results = mDatabase.delete(QueryResultsTable.NAME, QueryResultsTable.Cols.FILTER_KEY + " != ? and ("
+                    + QueryResultsTable.Cols.FILTER_KEY + " in (" + oldKeys + ") or "
+                    + QueryResultsTable.Cols.FILTER_KEY + " not in (select " + QueryKeysTable.Cols.FILTER_KEY
+                    + " from " + QueryKeysTable.NAME + "))", new String[]{keep, keep, args[1]});
+            int keys = mDatabase.delete(QueryKeysTable.NAME, QueryKeysTable.Cols.FILTER_KEY + " in (" + oldKeys + ")", args);
+            mDatabase.setTransactionSuccessful();
+            if(keys > 0 || results > 0) {
+                Log.i(LOGTAG, "in pruneQueryResults, dropped " + keys + " old queries, " + results + " result rows");
+            }
+        } finally {
+            mDatabase.endTransaction();
+        }
     }
 
 
@@ -119,49 +471,150 @@ public class MovieTheater {
      * Use to access the MovieTheater singleton.  If it does not exist, it will be
      * created and initialized.
      *
-     * @param context the context used by MovieTheater to get a reference to SharedPreferences
+     * @param context the context used by MovieTheater to open the database and MovieFilterStore
      * @return the single MovieTheater instance
      */
     public static MovieTheater get(Context context) {
-        if(sMovieTheater == null) {
-            sMovieTheater = new MovieTheater(context);
+        MovieTheater movieTheater = sMovieTheater;
+        if(movieTheater == null) {
+            synchronized (MovieTheater.class) {
+                movieTheater = sMovieTheater;
+                if(movieTheater == null) {
+                    // hang on to the application context only, MovieTheater outlives every Activity
+                    movieTheater = new MovieTheater(context.getApplicationContext());
+                    sMovieTheater = movieTheater;
+                }
+            }
         }
-        return sMovieTheater;
+        return movieTheater;
     }
 
 
-    // returns the list of Movies for this MovieTheater
-    public List<Movie> getMovies() { return mMoviesList; }
+    /**
+     * @return the MovieTheater singleton, or null if it has not been created yet
+     */
+    static MovieTheater peek() { return sMovieTheater; }
+
+
+    /**
+     * Use to get the current immutable movie list.  Callers that need to look at the list more than
+     * once (size, then get, then get again..) should grab a Snapshot once and use that, so they are
+     * guaranteed to be looking at the same list the whole time.
+     *
+     * @return the most recently published Snapshot, never null
+     */
+    public Snapshot getSnapshot() { return mSnapshot; }
 
-    public int getMovieListSize() { return mMoviesList.size(); }
+    // returns the list of Movies for this MovieTheater, the list is unmodifiable
+    public List<Movie> getMovies() { return mSnapshot.getMovies(); }
+
+    public int getMovieListSize() { return mSnapshot.size(); }
 
     /**
      * Use to get a single Movie.
      *
      * @param id themoviedb id of the Movie you need
-     * @return the Movie
+     * @return the Movie, or null if it is not in the current list or the search results
      */
     public Movie getMovie(int id) {
-        for (Movie m : mMoviesList) {
-            if(m.id == id) return m;
-        }
-        return null;
+        Movie movie = mSnapshot.getMovie(id);
+        return (movie != null) ? movie : mSearchResults.getMovie(id);
     }
 
+
+    /**
+     * Holds on to a list of search results, so MovieDetailPagerActivity can swipe through them without
+     * them taking the place of the movie list.  The movie list stays whatever the user's filters
+     * produced, so there is nothing to fetch again once the search is over.  Search results are only
+     * kept in memory, and no OnMoviesChangedListener is told about them.
+     *
+     * @param movies the search results the user just tapped one of
+     */
+    public void setSearchResults(List<Movie> movies) {
+        mSearchResults = new Snapshot(0, movies, null);
+    }
+
+    /**
+     * @return the last list passed to setSearchResults, empty if there has not been one since the
+     * process started
+     */
+    public Snapshot getSearchResults() { return mSearchResults; }
+
     /**
      * Updates MovieTheaters list of Movies and instantly overwrites the old list.  The list is stored
-     * both locally in MovieTheater, and persisted in SharedPreferences, so there is no risk of
-     * loosing the list, even if Android kills MovieTheater.
+     * both locally in MovieTheater, and persisted in the database in the background, so there is no
+     * risk of loosing the list, even if Android kills MovieTheater.
      *
      * @param movies the new list of Movies that MovieTheater will store
      */
-    public void updateMovies(List<Movie> movies) {
-        mMoviesList = movies;
-        saveMovieList(movies);
+    public void updateMovies(List<Movie> movies) { updateMovies(movies, null); }
+
+    /**
+     * Same as updateMovies(List), but also records which filter selection produced the list.  Safe
+     * to call from any thread, the new list is copied into a fresh Snapshot before it is published.
+     *
+     * @param movies the new list of Movies that MovieTheater will store
+     * @param filterKey identifies the movie filters used to fetch movies, may be null
+     */
+    public void updateMovies(List<Movie> movies, String filterKey) {
+        synchronized (mWriteLock) {
+            Snapshot previous = mSnapshot;
+            Snapshot snapshot = new Snapshot(previous.getVersion() + 1, movies, filterKey);
+            mSnapshot = snapshot;
+            saveMovieList(snapshot.getMovies(), filterKey);
+            notifyMoviesChanged(new MoviesChangedEvent(MoviesChangedEvent.TYPE_REPLACED,
+                    previous.getVersion(), snapshot));
+        }
+    }
+
+    /**
+     * Shows movies right away while the real list for filterKey is still being fetched.  Listeners
+     * are told just like for updateMovies, but nothing is stored: if MovieTheater is killed before the
+     * real list arrives, it comes back with the last real list.  The Snapshot's filter key is
+     * filterKey with PREVIEW_FILTER_KEY_PREFIX in front, so nobody mistakes a preview for the real list.
+     *
+     * @param movies the preview, usually from queryLocalMovies
+     * @param filterKey identifies the movie filters being fetched
+     */
+    public void previewMovies(List<Movie> movies, String filterKey) {
+        synchronized (mWriteLock) {
+            Snapshot previous = mSnapshot;
+            Snapshot snapshot = new Snapshot(previous.getVersion() + 1, movies, PREVIEW_FILTER_KEY_PREFIX + filterKey);
+            mSnapshot = snapshot;
+            notifyMoviesChanged(new MoviesChangedEvent(MoviesChangedEvent.TYPE_REPLACED,
+                    previous.getVersion(), snapshot));
+        }
+    }
+
+
+    /**
+     * Registers a listener that will be called on the main thread every time the movie list changes.
+     * Remember to remove it again, MovieTheater lives a lot longer than any Fragment.
+     *
+     * @param listener the listener to add
+     */
+    public void addOnMoviesChangedListener(OnMoviesChangedListener listener) {
+        if(!mListeners.contains(listener)) mListeners.add(listener);
+    }
+
+    public void removeOnMoviesChangedListener(OnMoviesChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    // events are posted in the order they were published, so listeners see the versions in order
+    private void notifyMoviesChanged(final MoviesChangedEvent event) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnMoviesChangedListener listener : mListeners) {
+                    listener.onMoviesChanged(event);
+                }
+            }
+        });
     }
 
 
-    // returns the list of movie genres for this MovieTheater
+    // returns the list of movie genres for this MovieTheater, the list is unmodifiable
     public List<Genre> getGenres() { return mGenresList; }
 
 
@@ -195,74 +648,484 @@ public class MovieTheater {
 
 
     /**
-     * Unlike MovieTheater.updateMovies, the Genre list is not persisted at this time.  The problem
-     * is that I didn't take into account that PreferencesFragment may not be loaded (which is where
-     * the list of genres is obtained in FetchGenresTask) on single screen devices until after a
-     * user navigates to the Movie detail screen, where I would like to use the list of genres to
-     * display the genre names associated with a given movie.  So there is no point in making it
-     * persistent because of this scenario: a user is viewing a movie detail in MovieDetailFragment,
-     * then Android kills MovieTheater, and then DetailFragment tries to call MovieTheater to get
-     * the genre list, but the call fails due to a null pointer excpetion... like so many other
-     * annoying design problems with stage one of this app, I will correct that in stage 2 by
-     * having a cleaner initialization process.  It would technically always work on split screen
-     * devices because PrefFragment always loads at app start, but I didn't want it to be
-     * inconsistent for tablets and phones.
+     * Replaces the list of Genres, and stores it in the database so it survives MovieTheater being
+     * killed.  That used to be a problem on single screen devices, where PreferencesFragment (which is
+     * where the list of genres is obtained in FetchGenresTask) may not have been loaded yet when
+     * MovieDetailFragment wanted genre names.
      *
-     * @param genres the list of Genres that MovieTheater will store until MovieTheater dies
+     * A list with only 'Any Genre' in it is what a failed fetch returns.  It is only used if there is
+     * no list at all yet, it never replaces a good list from the database, and the list is not marked
+     * as set this session, so the next FetchGenresTask tries again.
+     *
+     * @param genres the list of Genres that MovieTheater will store, in the order to show them
      */
-    public void setGenres(List<Genre> genres) { mGenresList = genres; }
+    public void setGenres(List<Genre> genres) {
+        synchronized (mWriteLock) { // load may be publishing the stored list right now
+            if(genres.size() <= 1) {
+                if(mGenresList.isEmpty()) mGenresList = Collections.unmodifiableList(new ArrayList<>(genres));
+                return;
+            }
+
+            mGenresList = Collections.unmodifiableList(new ArrayList<>(genres));
+            mGenresSetThisSession = true;
+        }
+
+        final List<Genre> genresToWrite = mGenresList;
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeGenres(genresToWrite);
+            }
+        });
+    }
+
+
+    // runs on mDiskWriter only
+    private void writeGenres(List<Genre> genres) {
+        if(mDatabase == null) return; // load could not open it, memory only
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.delete(GenresTable.NAME, null, null);
+            SQLiteStatement insert = mDatabase.compileStatement("insert or replace into " + GenresTable.NAME
+                    + "(" + GenresTable.Cols.ID + ", " + GenresTable.Cols.NAME + ", " + GenresTable.Cols.POSITION
+                    + ") values (?, ?, ?)");
+            for (int i = 0; i < genres.size(); i++) {
+                insert.bindLong(1, genres.get(i).id);
+                bindNullableString(insert, 2, genres.get(i).name);
+                insert.bindLong(3, i);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
 
     public int getGenreListSize() { return mGenresList.size(); }
 
+    // true once setGenres has been called since MovieTheater came to life, the list loaded from the
+    // database may be from a previous session and could be out of date
+    public boolean isGenreListFromThisSession() { return mGenresSetThisSession; }
+
 
     public List<Certification> getCertifications() { return mCertifications; }
 
     /**
      * ditto explanation from MovieTheater.setGenres
      *
-     * @param certs the list of Certifications that MovieTheater will store until it dies
+     * @param certs the list of Certifications that MovieTheater will store
      */
-    public void setCertifications(List<Certification> certs) { mCertifications = certs; }
+    public void setCertifications(List<Certification> certs) {
+        synchronized (mWriteLock) {
+            if(certs.size() <= 1) { // same as setGenres, a failed fetch is just 'Any Rating'
+                if(mCertifications.isEmpty()) mCertifications = Collections.unmodifiableList(new ArrayList<>(certs));
+                return;
+            }
+
+            mCertifications = Collections.unmodifiableList(new ArrayList<>(certs));
+            mCertificationsSetThisSession = true;
+        }
+
+        final List<Certification> certsToWrite = mCertifications;
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeCertifications(certsToWrite);
+            }
+        });
+    }
+
+
+    // runs on mDiskWriter only
+    private void writeCertifications(List<Certification> certs) {
+        if(mDatabase == null) return; // load could not open it, memory only
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.delete(CertificationsTable.NAME, null, null);
+            SQLiteStatement insert = mDatabase.compileStatement("insert or replace into " + CertificationsTable.NAME
+                    + "(" + CertificationsTable.Cols.NAME + ", " + CertificationsTable.Cols.MEANING + ", "
+                    + CertificationsTable.Cols.SORT_ORDER + ") values (?, ?, ?)");
+            for (Certification cert : certs) {
+                insert.bindString(1, cert.name);
+                bindNullableString(insert, 2, cert.meaning);
+                insert.bindLong(3, cert.order);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
 
     public int getCertificationListSize() { return mCertifications.size(); }
 
+    public boolean isCertificationListFromThisSession() { return mCertificationsSetThisSession; }
+
 
     /**
-     * Stores the list of Movies to sharedPreferences using Gson.
+     * Looks through every movie MovieTheater has ever stored, not just the current list, for movies
+     * that match filters, without touching the network.  Does database work the first time it is
+     * called after the stored movies change, and waits for the database to be loaded, so call it off
+     * the main thread.
+     *
+     * @param filters the movie filters to match
+     * @param limit the most movies to return
+     * @return the matching movies
+     * @see LocalMovieQueryEngine
+     */
+    public List<Movie> queryLocalMovies(MovieQuery filters, int limit) {
+        awaitLoaded();
+        if(mDatabase == null) return Collections.emptyList(); // nothing was ever stored to search
+        LocalMovieQueryEngine engine = mLocalQueryEngine;
+        if(engine == null) {
+            engine = buildLocalQueryEngine();
+            mLocalQueryEngine = engine; // a racing thread may build one too, they would be identical
+        }
+        return engine.query(filters, limit);
+    }
+
+
+    /**
+     * Lets go of everything MovieTheater holds that can be built again from the database: the
+     * LocalMovieQueryEngine, which has every movie ever stored in it, and the lists writeMovieList
+     * remembers so it can write only what changed.  The current Snapshot is kept, it is on screen, or
+     * will be the moment the user comes back.  Called by MemoryGovernor, from any thread.
+     */
+    void releaseRebuildableCaches() {
+        mLocalQueryEngine = null;
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the next write for any key is a full write again, which is correct, just not as cheap
+                mWrittenLists.clear();
+            }
+        });
+        Log.i(LOGTAG, "in releaseRebuildableCaches, the local query engine and written lists were dropped");
+    }
+
+
+    // reads every stored movie, and works out each one's certification from the queries it was in
+    private LocalMovieQueryEngine buildLocalQueryEngine() {
+        List<Movie> movies = readMovies(mDatabase.query(MoviesTable.NAME, null, null, null, null, null, null));
+
+        Set<String> certNames = new HashSet<>();
+        for (Certification cert : mCertifications) {
+            if(cert.order >= 0) certNames.add(cert.name); // 'Any Rating' is order -1, nothing is rated that
+        }
+
+        // a filter key has the cert in it, so every movie in a query for a specific cert has that cert
+        Map<Integer, String> certsById = new HashMap<>();
+        Cursor cursor = mDatabase.query(true, QueryResultsTable.NAME,
+                new String[]{QueryResultsTable.Cols.FILTER_KEY, QueryResultsTable.Cols.MOVIE_ID},
+                null, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String cert = MovieQuery.certOf(cursor.getString(0));
+                if(certNames.contains(cert)) certsById.put(cursor.getInt(1), cert);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.i(LOGTAG, "in buildLocalQueryEngine, indexed movies: " + movies.size());
+        return new LocalMovieQueryEngine(movies, certsById);
+    }
+
+
+    /**
+     * Queues the list of Movies to be stored in the database on mDiskWriter, so callers on the main
+     * thread (onPostExecute, mostly) never wait on the disk.  If the same filter key is saved again
+     * before the first write even started, only the newest list is written, so a burst of
+     * replacements costs one write.
+     *
+     * @param movies the list to store, must not change afterwards, Snapshot lists never do
+     * @param filterKey the filter key of the list, may be null
+     */
+    private void saveMovieList(List<Movie> movies, String filterKey) {
+        synchronized (mPendingSaves) {
+            boolean writeQueued = !mPendingSaves.isEmpty();
+            mPendingSaves.remove(filterKey); // so the newest filter key is always written last
+            mPendingSaves.put(filterKey, movies);
+            if(writeQueued) return; // the write already queued will take this list too
+        }
+
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Map.Entry<String, List<Movie>>> saves;
+                synchronized (mPendingSaves) {
+                    saves = new ArrayList<>(mPendingSaves.entrySet());
+                    mPendingSaves.clear();
+                }
+                for (Map.Entry<String, List<Movie>> save : saves) {
+                    writeMovieList(save.getValue(), save.getKey());
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Stores the list of Movies in the database, along with the filter key it was fetched with, so
+     * after MovieTheater comes back to life it still knows which filters the list belongs to.  Runs
+     * on mDiskWriter only.
+     *
+     * <p>
+     * Only what changed since the last list written for the same filter key is written: movies whose
+     * metadata is different (a refresh usually only moves popularity and vote_count around), their
+     * genres only if those changed too, and the query_results positions that now hold a different
+     * movie.  Appending a page to a long list writes the page and nothing else.  If there is no
+     * earlier list for the key in mWrittenLists, everything is written, like the first time.  It all
+     * happens in a single transaction with precompiled statements, so it costs one disk sync, and a
+     * reader never sees half a list.
+     * </p>
      *
      * @param movies the list to store
+     * @param filterKey the filter key of the list, may be null
      */
-    private void saveMovieList(List<Movie> movies) {
-        Gson gson = new Gson();
-        String json = gson.toJson(movies);
+    private void writeMovieList(List<Movie> movies, String filterKey) {
+        if(mDatabase == null) return; // load could not open it, memory only
+        String queryKey = (filterKey == null) ? "" : filterKey;
+        List<Movie> written = mWrittenLists.get(queryKey); // null means the database could have anything
+
+        Map<Integer, Movie> writtenById = new HashMap<>();
+        if(written != null) {
+            for (Movie movie : written) writtenById.put(movie.id, movie);
+        }
+
+        int moviesWritten = 0;
+        int positionsWritten = 0;
 
-        SharedPreferences.Editor editor = mSharedPrefs.edit();
-        editor.putString(MOVIE_LIST_SHAREDPREFS_KEY, json).commit();
+        mDatabase.beginTransaction();
+        try {
+            SQLiteStatement insertMovie = mDatabase.compileStatement("insert or replace into " + MoviesTable.NAME + "("
+                    + MoviesTable.Cols.ID + ", " + MoviesTable.Cols.TITLE + ", " + MoviesTable.Cols.ORIGINAL_TITLE + ", "
+                    + MoviesTable.Cols.ORIGINAL_LANGUAGE + ", " + MoviesTable.Cols.OVERVIEW + ", "
+                    + MoviesTable.Cols.RELEASE_DATE + ", " + MoviesTable.Cols.POSTER_PATH + ", "
+                    + MoviesTable.Cols.BACKDROP_PATH + ", " + MoviesTable.Cols.POPULARITY + ", "
+                    + MoviesTable.Cols.VOTE_AVERAGE + ", " + MoviesTable.Cols.VOTE_COUNT + ", "
+                    + MoviesTable.Cols.ADULT + ", " + MoviesTable.Cols.VIDEO
+                    + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement deleteGenres = mDatabase.compileStatement("delete from " + MovieGenresTable.NAME
+                    + " where " + MovieGenresTable.Cols.MOVIE_ID + " = ?");
+            SQLiteStatement insertGenre = mDatabase.compileStatement("insert or ignore into " + MovieGenresTable.NAME
+                    + "(" + MovieGenresTable.Cols.MOVIE_ID + ", " + MovieGenresTable.Cols.GENRE_ID + ") values (?, ?)");
+            SQLiteStatement insertResult = mDatabase.compileStatement("insert or replace into " + QueryResultsTable.NAME
+                    + "(" + QueryResultsTable.Cols.FILTER_KEY + ", " + QueryResultsTable.Cols.POSITION + ", "
+                    + QueryResultsTable.Cols.MOVIE_ID + ") values (?, ?, ?)");
 
-        Log.i(LOGTAG, "    in saveMovieList: saving movies to sharedPrefs");
+            if(written == null) {
+                mDatabase.delete(QueryResultsTable.NAME, QueryResultsTable.Cols.FILTER_KEY + " = ?",
+                        new String[]{queryKey});
+            }
+            else if(written.size() > movies.size()) {
+                // the list got shorter, drop the positions past its new end
+                mDatabase.delete(QueryResultsTable.NAME, QueryResultsTable.Cols.FILTER_KEY + " = ? and "
+                        + QueryResultsTable.Cols.POSITION + " >= ?", new String[]{queryKey, String.valueOf(movies.size())});
+            }
+
+            for (int position = 0; position < movies.size(); position++) {
+                Movie movie = movies.get(position);
+                Movie before = writtenById.get(movie.id);
+
+                if(before == null || !movie.hasSameStoredFields(before)) {
+                    insertMovie.bindLong(1, movie.id);
+                    bindNullableString(insertMovie, 2, movie.title);
+                    bindNullableString(insertMovie, 3, movie.original_title);
+                    bindNullableString(insertMovie, 4, movie.original_language);
+                    bindNullableString(insertMovie, 5, movie.overview);
+                    bindNullableString(insertMovie, 6, movie.release_date);
+                    bindNullableString(insertMovie, 7, movie.getPosterPath());
+                    bindNullableString(insertMovie, 8, movie.getBackdropPath());
+                    insertMovie.bindDouble(9, movie.popularity);
+                    insertMovie.bindDouble(10, movie.vote_average);
+                    insertMovie.bindLong(11, movie.vote_count);
+                    insertMovie.bindLong(12, movie.adult ? 1 : 0);
+                    insertMovie.bindLong(13, movie.video ? 1 : 0);
+                    insertMovie.executeInsert();
+                    moviesWritten++;
+                }
+
+                if(before == null || !Arrays.equals(movie.genre_ids, before.genre_ids)) {
+                    deleteGenres.bindLong(1, movie.id);
+                    deleteGenres.executeUpdateDelete();
+                    for (Integer genreId : movie.genre_ids) {
+                        insertGenre.bindLong(1, movie.id);
+                        insertGenre.bindLong(2, genreId);
+                        insertGenre.executeInsert();
+                    }
+                }
+
+                if(written == null || position >= written.size() || written.get(position).id != movie.id) {
+                    insertResult.bindString(1, queryKey);
+                    insertResult.bindLong(2, position);
+                    insertResult.bindLong(3, movie.id);
+                    insertResult.executeInsert();
+                    positionsWritten++;
+                }
+            }
+
+            // even an unchanged list counts as fresh, it's the age of the last fetch that matters
+            SQLiteStatement touchKey = mDatabase.compileStatement("insert or replace into " + QueryKeysTable.NAME
+                    + "(" + QueryKeysTable.Cols.FILTER_KEY + ", " + QueryKeysTable.Cols.WRITTEN_AT + ") values (?, ?)");
+            touchKey.bindString(1, queryKey);
+            touchKey.bindLong(2, System.currentTimeMillis());
+            touchKey.executeInsert();
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mWrittenLists.put(queryKey, movies);
+
+        if(moviesWritten > 0 || positionsWritten > 0) {
+            mLocalQueryEngine = null; // rebuilt with these movies in it next time somebody asks
+        }
+
+        // only once the list is really in the database, so the key never points at a list that isn't
+        if(!queryKey.equals(mFilterStore.getString(MOVIE_LIST_FILTER_KEY_SHAREDPREFS_KEY, ""))) {
+            mFilterStore.putString(MOVIE_LIST_FILTER_KEY_SHAREDPREFS_KEY, filterKey);
+        }
+
+        Log.i(LOGTAG, "    in writeMovieList: list of " + movies.size() + ", wrote " + moviesWritten
+                + " movies and " + positionsWritten + " positions to the database");
     }
 
 
     /**
-     * Retrieves a list of Movies from sharePreferences using Gson.
+     * Retrieves the list of Movies that was stored for a filter key, in the order it was stored.
      *
-     * @return the list of movies
+     * @param filterKey the filter key the list was stored with, may be null
+     * @return the list of movies, empty if nothing was stored for that key
      */
-    private List<Movie> loadMovieList() {
-        Gson gson = new Gson();
-        Type collectionType = new TypeToken<List<Movie>>(){}.getType();
+    private List<Movie> loadMovieList(String filterKey) {
+        Cursor cursor = mDatabase.rawQuery("select m.* from " + QueryResultsTable.NAME + " q"
+                + " join " + MoviesTable.NAME + " m on m." + MoviesTable.Cols.ID + " = q." + QueryResultsTable.Cols.MOVIE_ID
+                + " where q." + QueryResultsTable.Cols.FILTER_KEY + " = ?"
+                + " order by q." + QueryResultsTable.Cols.POSITION,
+                new String[]{(filterKey == null) ? "" : filterKey});
+
+        return readMovies(cursor);
+    }
+
+
+    // reads every movie in cursor and closes it, then fills in their genre ids with one more query
+    private List<Movie> readMovies(Cursor cursor) {
+        List<Movie> movies = new ArrayList<>();
+        MovieCursorWrapper wrapper = new MovieCursorWrapper(cursor);
+        try {
+            while (wrapper.moveToNext()) {
+                movies.add(wrapper.getMovie());
+            }
+        } finally {
+            wrapper.close();
+        }
+
+        if(movies.isEmpty()) return movies;
+
+        int[] ids = new int[movies.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = movies.get(i).id;
+
+        Map<Integer, List<Integer>> genresById = new HashMap<>();
+        Cursor genreCursor = mDatabase.query(MovieGenresTable.NAME, null,
+                MovieGenresTable.Cols.MOVIE_ID + " in (" + joinInts(ids) + ")", null, null, null, null);
+        try {
+            int movieIdColumn = genreCursor.getColumnIndex(MovieGenresTable.Cols.MOVIE_ID);
+            int genreIdColumn = genreCursor.getColumnIndex(MovieGenresTable.Cols.GENRE_ID);
+            while (genreCursor.moveToNext()) {
+                List<Integer> genreIds = genresById.get(genreCursor.getInt(movieIdColumn));
+                if(genreIds == null) {
+                    genreIds = new ArrayList<>();
+                    genresById.put(genreCursor.getInt(movieIdColumn), genreIds);
+                }
+                genreIds.add(genreCursor.getInt(genreIdColumn));
+            }
+        } finally {
+            genreCursor.close();
+        }
 
-        List<Movie> movieList = gson.fromJson(mSharedPrefs.
-                getString(MOVIE_LIST_SHAREDPREFS_KEY, ""), collectionType);
+        for (Movie movie : movies) {
+            List<Integer> genreIds = genresById.get(movie.id);
+            if(genreIds != null) movie.genre_ids = genreIds.toArray(new Integer[genreIds.size()]);
+        }
+        return movies;
+    }
 
-        Log.i(LOGTAG, "    in loadMovieList, just loaded movies from sharedPrefs, and list size is: " + movieList.size());
 
-        return movieList;
+    private List<Genre> loadGenres() {
+        List<Genre> genres = new ArrayList<>();
+        Cursor cursor = mDatabase.query(GenresTable.NAME, null, null, null, null, null, GenresTable.Cols.POSITION);
+        try {
+            while (cursor.moveToNext()) {
+                genres.add(new Genre(cursor.getInt(cursor.getColumnIndex(GenresTable.Cols.ID)),
+                        cursor.getString(cursor.getColumnIndex(GenresTable.Cols.NAME))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return genres;
     }
 
 
+    private List<Certification> loadCertifications() {
+        List<Certification> certs = new ArrayList<>();
+        Cursor cursor = mDatabase.query(CertificationsTable.NAME, null, null, null, null, null,
+                CertificationsTable.Cols.SORT_ORDER);
+        try {
+            while (cursor.moveToNext()) {
+                certs.add(new Certification(cursor.getString(cursor.getColumnIndex(CertificationsTable.Cols.NAME)),
+                        cursor.getString(cursor.getColumnIndex(CertificationsTable.Cols.MEANING)),
+                        cursor.getInt(cursor.getColumnIndex(CertificationsTable.Cols.SORT_ORDER))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return certs;
+    }
 
 
+    /**
+     * Moves the movie list that older versions of this app kept as a Gson json String in
+     * sharedPrefs into the database, then removes it from sharedPrefs.  Only ever runs once.  Gson
+     * wrote the Movie fields by name, so Movie.JSON_CODEC reads them back.
+     */
+    private void migrateMovieListFromSharedPrefs() {
+        List<Movie> movieList = new ArrayList<>();
+        JsonReader reader = new JsonReader(new StringReader(mFilterStore.getString(MOVIE_LIST_SHAREDPREFS_KEY, "")));
+        try {
+            Movie.JSON_CODEC.readArray(reader, movieList);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // a broken old list is not worth crashing over, the first fetch fills the database anyway
+            Log.e(LOGTAG, "in migrateMovieListFromSharedPrefs, could not read the old movie list", e);
+            movieList.clear();
+        }
+
+        if(!movieList.isEmpty()) {
+            // straight to the database, loadStoredLists loads the list right after this
+            writeMovieList(movieList, mFilterStore.getString(MOVIE_LIST_FILTER_KEY_SHAREDPREFS_KEY, null));
+        }
+
+        mFilterStore.remove(MOVIE_LIST_SHAREDPREFS_KEY);
+        Log.i(LOGTAG, "    in migrateMovieListFromSharedPrefs, moved the old json movie list to the database");
+    }
+
+
+    // SQLiteStatement.bindString does not take null
+    private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if(value == null) statement.bindNull(index);
+        else statement.bindString(index, value);
+    }
+
+
+    // ids are ints, so they can go straight into an 'in (..)' clause
+    private static String joinInts(int[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (int value : values) {
+            if(joined.length() > 0) joined.append(',');
+            joined.append(value);
+        }
+        return joined.toString();
+    }
 
 
 }
@@ -0,0 +1,70 @@
+package com.nate.popmoviess1;
+
+import android.app.Application;
+import android.os.SystemClock;
+
+import com.squareup.picasso.OkHttpDownloader;
+import com.squareup.picasso.Picasso;
+
+/**
+ * Sets up the things that have to exist before any Activity does: Picasso is built with a memory
+ * cache MemoryGovernor can trim, and every memory warning the system sends the app goes to
+ * MemoryGovernor.  onTrimMemory is only ever called on API 14 and up, older devices only get
+ * onLowMemory.
+ *
+ * <p>
+ * Picasso also downloads through OkHttp instead of HttpURLConnection.  Every poster and backdrop
+ * comes from image.tmdb.org, so they all share OkHttp's pool of connections to that one host, and on
+ * devices that can negotiate it (Lollipop and up) they are multiplexed over a single HTTP/2 connection
+ * instead of each one waiting for a connection of its own.  How many download at once is still up to
+ * Picasso's executor, which runs 1 to 4 threads depending on the network type, and takes requests
+ * from its queue highest Picasso.Priority first.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MemoryGovernor
+ */
+public class PopMoviesApplication extends Application {
+
+    private static long sCreatedAtMillis; // elapsedRealtime when the process got as far as onCreate
+
+    private MemoryGovernor mMemoryGovernor;
+
+
+    @Override
+    public void onCreate() {
+        sCreatedAtMillis = SystemClock.elapsedRealtime();
+        super.onCreate();
+
+        mMemoryGovernor = new MemoryGovernor(this);
+
+        // every Picasso.with(context) in the app gets this instance, it must be set before the first one
+        Picasso.setSingletonInstance(new Picasso.Builder(this)
+                .memoryCache(mMemoryGovernor.getImageCache())
+                .downloader(new OkHttpDownloader(this)) // disk cache in the same 'picasso-cache' dir as before
+                .build());
+    }
+
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mMemoryGovernor.onTrimMemory(level);
+    }
+
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mMemoryGovernor.onLowMemory();
+    }
+
+
+    public MemoryGovernor getMemoryGovernor() { return mMemoryGovernor; }
+
+
+    // launch timings are measured from here, see StartupFetchBarrier
+    static long getCreatedAtMillis() { return sCreatedAtMillis; }
+
+
+}
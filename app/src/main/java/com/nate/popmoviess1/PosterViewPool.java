@@ -0,0 +1,133 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The RecycledViewPool every MovieGridFragment in an activity shares.  A new MovieGridFragment is
+ * made every time the movie filters change, and each one used to start with an empty pool and
+ * inflate moviegrid_poster.xml for every poster on screen, all in the same frame.  With this pool,
+ * the views the last grid was using are handed to the next one.
+ *
+ * <p>
+ * The very first grid can be helped along too: preInflate fills the pool with about a screen's worth
+ * of poster views ahead of time.  Views can only be made on the main thread, and the support library
+ * this app uses has no async inflater, so instead of all at once they are inflated one at a time
+ * whenever the main thread has nothing else to do, while the first movie fetch is still on the wire.
+ * They are kept aside and handed out by obtainHolder rather than put straight into the pool, because
+ * RecyclerView only gives a holder its view type after onCreateViewHolder returns it.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieGridFragment.Callbacks#getPosterViewPool()
+ */
+class PosterViewPool extends RecyclerView.RecycledViewPool {
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+
+    private static final int POSTER_VIEW_TYPE = 0; // MoviePosterAdapter only has the one
+    private static final int MIN_CAPACITY = 12;
+
+    private final int mCapacity;
+    private MessageQueue.IdleHandler mPreInflater; // not null while preInflate is still going
+    private final List<MovieGridFragment.MoviePosterHolder> mPreInflated = new ArrayList<>(); // main thread only
+
+
+    /**
+     * @param context used to work out how many posters fit on the screen
+     */
+    PosterViewPool(Context context) {
+        // a screen's worth, plus a screen's worth more for the views still animating out of the old grid
+        mCapacity = Math.max(MIN_CAPACITY,
+                2 * MovieGridFragment.estimateFirstScreenPosterCount(context.getResources()));
+        setMaxRecycledViews(POSTER_VIEW_TYPE, mCapacity);
+    }
+
+
+    /**
+     * Returns a pre-inflated holder, or inflates one if there are none left.  MoviePosterAdapter
+     * calls this from onCreateViewHolder, which RecyclerView only calls when the pool is empty.
+     *
+     * @param inflater the hosting activity's inflater
+     * @param parent the RecyclerView the holder is for
+     * @return an unbound holder
+     */
+    MovieGridFragment.MoviePosterHolder obtainHolder(LayoutInflater inflater, ViewGroup parent) {
+        if(!mPreInflated.isEmpty()) return mPreInflated.remove(mPreInflated.size() - 1);
+        return createHolder(inflater, parent);
+    }
+
+
+    private static MovieGridFragment.MoviePosterHolder createHolder(LayoutInflater inflater, ViewGroup parent) {
+        // for now the view just needs to hold a single ImageView.. (the movie thumbnail pic)
+        View view = inflater.inflate(R.layout.moviegrid_poster, parent, false);
+        return new MovieGridFragment.MoviePosterHolder(view);
+    }
+
+
+    /**
+     * Fills the pool with about a screen's worth of poster views, one view each time the main
+     * thread goes idle, so startup is never held up by it.  Call from an Activity's onCreate.
+     *
+     * @param context the hosting activity
+     */
+    void preInflate(Context context) {
+        if(mPreInflater != null) return;
+
+        final int count = Math.min(mCapacity,
+                MovieGridFragment.estimateFirstScreenPosterCount(context.getResources()));
+        final LayoutInflater inflater = LayoutInflater.from(context);
+
+        // the poster's layout_width only means something to a RecyclerView with a layout manager,
+        // this one is never shown, it is only there to build LayoutParams
+        final RecyclerView parent = new RecyclerView(context);
+        parent.setLayoutManager(new GridLayoutManager(context, 1));
+
+        mPreInflater = new MessageQueue.IdleHandler() {
+            private int mInflated;
+
+            @Override
+            public boolean queueIdle() {
+                // if a grid took some of them already, they still were not inflated during a frame
+                if(mPreInflater != this || mInflated >= count) {
+                    return done();
+                }
+
+                mPreInflated.add(createHolder(inflater, parent));
+                mInflated++;
+                return true; // keep going next time the main thread is idle
+            }
+
+            private boolean done() {
+                Log.i(LOGTAG, "in queueIdle, pre-inflated " + mInflated + " poster views");
+                if(mPreInflater == this) mPreInflater = null;
+                return false;
+            }
+        };
+        Looper.myQueue().addIdleHandler(mPreInflater);
+    }
+
+
+    /**
+     * Stops preInflate, if it's still going, and lets go of any views it made that were never
+     * used.  Call from the Activity's onDestroy.
+     */
+    void cancelPreInflate() {
+        if(mPreInflater != null) {
+            Looper.myQueue().removeIdleHandler(mPreInflater);
+            mPreInflater = null;
+        }
+        mPreInflated.clear();
+    }
+
+
+}
@@ -1,15 +1,16 @@
 package com.nate.popmoviess1;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
+import android.widget.Toast;
 import android.support.v7.preference.EditTextPreference;
 import android.support.v7.preference.ListPreference;
 import android.support.v7.preference.Preference;
@@ -34,16 +35,30 @@ import android.support.v7.preference.SwitchPreferenceCompat;
  *
  * <p>
  * After the initial fetch operation for genres and certs, this fragment monitors for user changes
- * to any movie filtering preference.  When a preference is changed, it is immediately stored in
- * sharedPrefs, before onPreferenceChange even returns, because MovieGridFragment updates the movie
- * grid posters in real time.  Android does not actually write the new values to sharedPrefs until
- * after onPreferenceChange returns.  When a preference is changed by user, this fragment's
- * onMovieFilterChange callback method is called so that it's hosting Activity (MovieGridFragment)
- * can update the movie grid instantly.
+ * to any movie filtering preference.  When a preference is changed, it is immediately put in
+ * MovieFilterStore, before onPreferenceChange even returns, because MovieGridFragment updates the
+ * movie grid posters in real time.  The store holds the new value in memory for the fetch to read
+ * and writes it to sharedPrefs on a background thread, so the main thread never waits on the disk.
+ * When a preference is changed by user, this fragment's onMovieFilterChange callback method is
+ * called so that it's hosting Activity (MovieGridFragment) can update the movie grid instantly.
+ * </p>
+ *
+ * <p>
+ * Almost instantly: the callback waits FILTER_CHANGE_DEBOUNCE_MS after the last change, so a user
+ * clicking through several filters in a row only causes one fetch, and it is skipped altogether if
+ * the filters end up the same query the grid already has.  A year that is not a year themoviedb
+ * could have a movie for ('19', '20155') is not saved at all, the user is told what is allowed.
+ * </p>
+ *
+ * <p>
+ * More than one genre can be picked, the genre ListPreference's dialog is replaced with
+ * GenreListPreferenceDialogFragment, and the genre pref holds a comma separated list of genre ids.
  * </p>
  *
  * @author Nathan Merris
  * @see MovieGridFragment
+ * @see MovieFilterStore
+ * @see GenreListPreferenceDialogFragment
  * @see com.nate.popmoviess1.MovieTheater.Genre
  * @see MovieTheater#setGenres(List)
  * @see com.nate.popmoviess1.MovieTheater.Certification
@@ -56,14 +71,26 @@ public class PreferencesFragment extends PreferenceFragmentCompat
 
     // one MovieTheater to rule them all, and in the darkness bind their preferences (get the reference?)
     private MovieTheater mMovieTheater;
-    private SharedPreferences mSharedPrefs;
+    private MovieFilterStore mFilterStore; // every pref read and write goes through here, never straight to sharedPrefs
     private Callbacks mCallbacks;
 
+    private static final String GENRE_DIALOG_TAG = "PreferencesFragment.genreDialog";
+    private static final long FILTER_CHANGE_DEBOUNCE_MS = 600;
+    private final Handler mHandler = new Handler();
+    private String mNotifiedQueryKey; // the query the hosting activity last heard about
+    private boolean mFilterChangePending;
+    private final Runnable mNotifyFilterChanged = new Runnable() {
+        @Override
+        public void run() {
+            notifyMovieFilterChanged();
+        }
+    };
+
 
     /**
      * Required interface for any activity that hosts this fragment.
      *
-     * Called when any movie filter related preference is changed.  The data in sharedPrefs will
+     * Called when any movie filter related preference is changed.  The data in MovieFilterStore will
      * already be updated when this method is called.
      */
     public interface Callbacks {
@@ -109,7 +136,8 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         Log.i(LOGTAG, "just entered onCreate");
 
 
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
+        mFilterStore = MovieFilterStore.get(getActivity());
+        mNotifiedQueryKey = mFilterStore.getQuery().key; // what the grid is showing, or about to
         mMovieTheater = MovieTheater.get(getActivity());
 
         addPreferencesFromResource(R.xml.preference_movie_filters);
@@ -117,16 +145,21 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         updateReleaseDatePref(); // sets release date pref to current year when app run for first time
 
 
-        // if the list of genres or certs are zero
-        if (mMovieTheater.getCertificationListSize() == 0) // check if this app session has an up to date list of certs
-            new FetchCertificationsTask().execute(); // gets a list of all available themoviedb certs, and calls updateCertificationListPref() when done
-        else
+        // if the list of genres or certs are not from this app session, fetch them again, but show
+        // whatever MovieTheater loaded from the database in the meantime
+        // both go on the thread pool, on a cold start they run alongside the first movie fetch
+        // instead of one after another on AsyncTask's serial executor, see StartupFetchBarrier
+        // if a previous instance of this fragment already started the same fetch (rotation), the
+        // new task just joins it inside TheMovieDbFetcher instead of making a second API call
+        if (mMovieTheater.getCertificationListSize() > 1)
             updateCertificationListPref(); // use whatever certs list is in MovieTheater, no need to call themoviedb API on every orientation change
+        if (!mMovieTheater.isCertificationListFromThisSession()) // check if this app session has an up to date list of certs
+            new FetchCertificationsTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR); // gets a list of all available themoviedb certs, and calls updateCertificationListPref() when done
 
-        if(mMovieTheater.getGenreListSize() == 0) // check if this app session has an up to date list of genres
-            new FetchGenresTask().execute(); // gets a list of all available themoviedb genres and calls updateGenreListPref when done
-        else
+        if(mMovieTheater.getGenreListSize() > 1)
             updateGenreListPref(); // use whatever genre list is in MovieTheater, no need to call themoviedb API every orientation change
+        if(!mMovieTheater.isGenreListFromThisSession()) // check if this app session has an up to date list of genres
+            new FetchGenresTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR); // gets a list of all available themoviedb genres and calls updateGenreListPref when done
 
 
 
@@ -138,16 +171,16 @@ public class PreferencesFragment extends PreferenceFragmentCompat
 
 
         setPreferenceSummaries(findPreference(getString(R.string.pref_movieinfo_genre_key)),
-                mSharedPrefs.getString(getString(R.string.pref_movieinfo_genre_key), ""));
+                mFilterStore.getString(getString(R.string.pref_movieinfo_genre_key), ""));
 
         setPreferenceSummaries(findPreference(getString(R.string.pref_movieinfo_cert_key)),
-                mSharedPrefs.getString(getString(R.string.pref_movieinfo_cert_key), ""));
+                mFilterStore.getString(getString(R.string.pref_movieinfo_cert_key), ""));
 
         setPreferenceSummaries(findPreference(getString(R.string.pref_movieinfo_year_key)),
-                mSharedPrefs.getString(getString(R.string.pref_movieinfo_year_key), ""));
+                mFilterStore.getString(getString(R.string.pref_movieinfo_year_key), ""));
 
         setPreferenceSummaries(findPreference(getString(R.string.pref_movieinfo_sortby_key)),
-                mSharedPrefs.getString(getString(R.string.pref_movieinfo_sortby_key), ""));
+                mFilterStore.getString(getString(R.string.pref_movieinfo_sortby_key), ""));
 
 
     }
@@ -162,57 +195,93 @@ public class PreferencesFragment extends PreferenceFragmentCompat
 
 
 
+    // ListPreference only does single choice, the genre pref gets a dialog that can check several
+    @Override
+    public void onDisplayPreferenceDialog(Preference preference) {
+        if(!preference.getKey().equals(getString(R.string.pref_movieinfo_genre_key))) {
+            super.onDisplayPreferenceDialog(preference);
+            return;
+        }
+
+        if(getFragmentManager().findFragmentByTag(GENRE_DIALOG_TAG) != null) return; // already showing
+
+        GenreListPreferenceDialogFragment dialog =
+                GenreListPreferenceDialogFragment.newInstance(preference.getKey());
+        dialog.setTargetFragment(this, 0);
+        dialog.show(getFragmentManager(), GENRE_DIALOG_TAG);
+    }
+
+
+
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
         //Log.i(LOGTAG, "just entered onPreferenceChange");
 
         String stringValue = value.toString();
 
-
-
-        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        if(preference.getKey().equals(getString(R.string.pref_movieinfo_year_key))
+                && !MovieQuery.isValidYearPref(stringValue)) {
+            Toast.makeText(getActivity(), getString(R.string.pref_movieinfo_year_invalid,
+                    MovieQuery.MIN_RELEASE_YEAR, MovieQuery.MAX_RELEASE_YEAR), Toast.LENGTH_LONG).show();
+            return false; // the pref keeps its old value, nothing is saved or fetched
+        }
 
         // Android does not write the value to sharePrefs until after this method
         // returns, but I need them immediately over in MovieGridFragment, so I am
-        // writing them in myself.  I tried using Android's built in callback
-        // interface (Preference.onPreferenceStartFragment) in this fragment's hosting
+        // putting them in MovieFilterStore myself, which has them in memory right away
+        // and writes them to sharedPrefs on a background thread.  I tried using Android's built in
+        // callback interface (Preference.onPreferenceStartFragment) in this fragment's hosting
         // activity, but it does the same thing, it's actually called before
         // onPreferenceChange is called
-        if(preference.getKey().equals(getString(R.string.pref_movieinfo_cert_key))) {
-            editor.putString(getString(R.string.pref_movieinfo_cert_key),
-                    stringValue);
-        }
-        else if(preference.getKey().equals(getString(R.string.pref_movieinfo_year_key))) {
-            editor.putString(getString(R.string.pref_movieinfo_year_key),
-                    stringValue);
+        if(preference.getKey().equals(getString(R.string.pref_movieinfo_year_switch_key))) {
+            mFilterStore.putBoolean(preference.getKey(), Boolean.valueOf(stringValue));
         }
-        else if(preference.getKey().equals(getString(R.string.pref_movieinfo_genre_key))) {
-            editor.putString(getString(R.string.pref_movieinfo_genre_key),
-                    stringValue);
-        }
-        else if(preference.getKey().equals(getString(R.string.pref_movieinfo_sortby_key))) {
-            editor.putString(getString(R.string.pref_movieinfo_sortby_key),
-                    stringValue);
-        }
-        else if(preference.getKey().equals(getString(R.string.pref_movieinfo_year_switch_key))) {
-            editor.putBoolean(getString(R.string.pref_movieinfo_year_switch_key),
-                    Boolean.valueOf(stringValue));
-
+        else {
+            // cert, year, genre and sort by are all Strings
+            mFilterStore.putString(preference.getKey(), stringValue);
         }
 
-        editor.commit();
-
         setPreferenceSummaries(preference, value);
 
 
-        // now tell the hosting activity movie filter prefs have changed.. it's going to
-        // perform a fragment transaction to update the grid of movies
-        mCallbacks.onMovieFilterChanged();
+        // tell the hosting activity movie filter prefs have changed once the user stops changing them..
+        // it's going to perform a fragment transaction to update the grid of movies
+        mFilterChangePending = true;
+        mHandler.removeCallbacks(mNotifyFilterChanged);
+        mHandler.postDelayed(mNotifyFilterChanged, FILTER_CHANGE_DEBOUNCE_MS);
 
         return true;
     }
 
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // the user may be leaving before the debounce is up, the hosting activity still needs to know
+        if(mFilterChangePending) {
+            mHandler.removeCallbacks(mNotifyFilterChanged);
+            notifyMovieFilterChanged();
+        }
+    }
+
+
+    // only bothers the hosting activity if the filters are really a different query now, toggling a
+    // filter and then toggling it back, or flipping the year switch back and forth, fetches nothing
+    private void notifyMovieFilterChanged() {
+        mFilterChangePending = false;
+
+        String queryKey = mFilterStore.getQuery().key;
+        if(queryKey.equals(mNotifiedQueryKey)) {
+            Log.i(LOGTAG, "in notifyMovieFilterChanged, filters are the same query as before, not refetching");
+            return;
+        }
+
+        mNotifiedQueryKey = queryKey;
+        if(mCallbacks != null) mCallbacks.onMovieFilterChanged();
+    }
+
+
     private void bindPreferenceSummaryToValue(Preference preference) {
         //Log.i(LOGTAG, "just entered bindPreferenceSummaryToValue: " + preference.toString());
 
@@ -220,7 +289,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         preference.setOnPreferenceChangeListener(this);
 
         // update the preference summary
-        setPreferenceSummaries(preference, mSharedPrefs.getString(preference.getKey(), ""));
+        setPreferenceSummaries(preference, mFilterStore.getString(preference.getKey(), ""));
     }
 
 
@@ -234,7 +303,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         if(preference instanceof SwitchPreferenceCompat) {
 
             if(Boolean.valueOf(stringValue)) { // year toggle switch was just turned ON
-                yearEditTextPref.setTitle(mSharedPrefs.getString(getString(R.string.pref_movieinfo_year_key), ""));
+                yearEditTextPref.setTitle(mFilterStore.getString(getString(R.string.pref_movieinfo_year_key), ""));
 
             }
             else { // year toggle switch was just turned OFF
@@ -251,7 +320,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             //SwitchPreferenceCompat yearToggleSwitch = (SwitchPreferenceCompat) findPreference(getString(R.string.pref_movieinfo_year_switch_key));
 
             // year toggle switch was ON when this method was called, so set the year EditText title
-            if(mSharedPrefs.getBoolean(getString(R.string.pref_movieinfo_year_switch_key), true)) {
+            if(mFilterStore.getBoolean(getString(R.string.pref_movieinfo_year_switch_key), true)) {
                 yearEditTextPref.setTitle(stringValue);
             }
             else { // year toggle switch was OFF whan this method was called
@@ -268,6 +337,8 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             int prefIndex = listPreference.findIndexOfValue(stringValue);
             if (prefIndex >= 0)
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
+            else // several genres, like '28,35', show all their names
+                preference.setSummary(getMultipleEntriesSummary(listPreference, stringValue));
         }
         else {
             preference.setSummary(stringValue);
@@ -276,7 +347,24 @@ public class PreferencesFragment extends PreferenceFragmentCompat
     }
 
 
+    // 'Action, Comedy' for '28,35', any id that is not one of the entries is left out
+    private String getMultipleEntriesSummary(ListPreference listPreference, String value) {
+        List<String> entries = new ArrayList<>();
+        for (String entryValue : GenreListPreferenceDialogFragment.splitValues(value)) {
+            int prefIndex = listPreference.findIndexOfValue(entryValue);
+            if(prefIndex >= 0) entries.add(listPreference.getEntries()[prefIndex].toString());
+        }
+        return TextUtils.join(", ", entries);
+    }
+
+
     private class FetchGenresTask extends AsyncTask<Void, Void, List<MovieTheater.Genre>> {
+        private boolean mCountedAtStartup;
+
+        @Override
+        protected void onPreExecute() {
+            mCountedAtStartup = StartupFetchBarrier.register("genres");
+        }
 
         @Override
         protected List<MovieTheater.Genre> doInBackground(Void... params) {
@@ -291,6 +379,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             if(mMovieTheater.getGenreListSize() > 1)
                 updateGenreListPref();
 
+            if(mCountedAtStartup) StartupFetchBarrier.arrive("genres");
             Log.i(LOGTAG,"EXITING FetchGenresTask.onPostExecute");
         }
 
@@ -299,6 +388,12 @@ public class PreferencesFragment extends PreferenceFragmentCompat
 
     // task will query themoviedb for ALL available movie certifications
     private class FetchCertificationsTask extends AsyncTask<Void, Void, List<MovieTheater.Certification>> {
+        private boolean mCountedAtStartup;
+
+        @Override
+        protected void onPreExecute() {
+            mCountedAtStartup = StartupFetchBarrier.register("certifications");
+        }
 
         @Override
         protected List<MovieTheater.Certification> doInBackground(Void... params) {
@@ -313,6 +408,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             if(mMovieTheater.getCertificationListSize() > 1)
                 updateCertificationListPref();
 
+            if(mCountedAtStartup) StartupFetchBarrier.arrive("certifications");
             Log.i(LOGTAG,"EXITING FetchCertificationsTask.onPostExecute");
         }
 
@@ -324,14 +420,12 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         // the following code will programmatically populate the year pref ONLY if their is
         // currently no year pref saved in sharedPrefs, ie the first time the user installs this app,
         // the year pref defaults to the current year, after that the user's pref is retained and shown
-        String movieYearValue = mSharedPrefs.getString(getString(R.string.pref_movieinfo_year_key), "");
+        String movieYearValue = mFilterStore.getString(getString(R.string.pref_movieinfo_year_key), "");
         if(TextUtils.isEmpty(movieYearValue)) {
             Log.i(LOGTAG, "  movieYearValue isEmpty(), defaulting to the current year");
             Calendar calendar = Calendar.getInstance();
             String year = String.valueOf(calendar.get(Calendar.YEAR));
-            SharedPreferences.Editor editor = mSharedPrefs.edit();
-            editor.putString(getString(R.string.pref_movieinfo_year_key), year);
-            editor.commit();
+            mFilterStore.putString(getString(R.string.pref_movieinfo_year_key), year);
             EditTextPreference yearEditTextPref = (EditTextPreference) findPreference(getString(R.string.pref_movieinfo_year_key));
             yearEditTextPref.setText(year);
         }
@@ -341,10 +435,17 @@ public class PreferencesFragment extends PreferenceFragmentCompat
     }
 
 
+    // ListPreference.setValue writes straight to sharedPrefs, MovieFilterStore needs to know too
+    private void setListPrefValue(ListPreference listPreference, String value) {
+        listPreference.setValue(value);
+        mFilterStore.putString(listPreference.getKey(), value);
+    }
+
+
     private void updateCertificationListPref() {
 
         boolean currentlySelectedPrefValueHasChanged = true;
-        String currentCertificationPrefValue = mSharedPrefs.getString(getString(R.string.pref_movieinfo_cert_key), "");
+        String currentCertificationPrefValue = mFilterStore.getString(getString(R.string.pref_movieinfo_cert_key), "");
         Log.i(LOGTAG, "  inside updateCertificationListPref and current certificationPrefValue: " + currentCertificationPrefValue);
 
         // the following code populates the movie certs filter prefs with data that has
@@ -378,7 +479,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         // for the first time after install, in which case default to 'Any Rating'
         if(certificationListPref.getValue() == null) {
             Log.i(LOGTAG, "  resetting cert list pref to 'Any Rating' because no previous cert list entry was found");
-            certificationListPref.setValue(cs[0].toString());
+            setListPrefValue(certificationListPref, cs[0].toString());
         }
 
         // if the user happened to have had a movie genre selected that themoviedb happened to
@@ -387,7 +488,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         // perspective, considering that it will rarely ever happen
         if(currentlySelectedPrefValueHasChanged) {
             Log.i(LOGTAG, "  resetting certification list pref to 'Any Rating'");
-            certificationListPref.setValue(cs[0].toString()); // csValue[0] is always the default entry
+            setListPrefValue(certificationListPref, cs[0].toString()); // csValue[0] is always the default entry
         }
 
         bindPreferenceSummaryToValue(certificationListPref);
@@ -397,8 +498,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
 
     private void updateGenreListPref() {
 
-        boolean currentlySelectedPrefValueHasChanged = true;
-        String currentGenrePrefValue = mSharedPrefs.getString(getString(R.string.pref_movieinfo_genre_key), "");
+        String currentGenrePrefValue = mFilterStore.getString(getString(R.string.pref_movieinfo_genre_key), "");
         Log.i(LOGTAG, "  inside updateGenreListPref and current genrePrefValue (-1 means 'Any Genre'): " + currentGenrePrefValue);
 
         // the following code populates the movie genre filter prefs with data that has
@@ -409,6 +509,8 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         List<MovieTheater.Genre> genreList = mMovieTheater.getGenres();
         CharSequence[] csEntries = new CharSequence[genreList.size()];
         CharSequence[] csValues = new CharSequence[genreList.size()];
+        List<String> currentGenreIds = GenreListPreferenceDialogFragment.splitValues(currentGenrePrefValue);
+        List<String> keptGenreIds = new ArrayList<>(); // the selected genres themoviedb still has
 
         MovieTheater.Genre[] genreObjectArray = genreList
                 .toArray(new MovieTheater.Genre[genreList.size()]);
@@ -416,12 +518,12 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             csEntries[i] = genreObjectArray[i].name;
             csValues[i] = String.valueOf(genreObjectArray[i].id);
 
-            // need to know if themoviedb has changed or removed the genre name that is currently selected by user
-            // so set boolean to false if at least one of the cs entries matches the current user selected genre prefs value
-            // if ANY other genre name than the one the user currently has selected is changed, it does not matter
+            // need to know if themoviedb has changed or removed any genre that is currently selected by user,
+            // the pref can hold several genre ids, so keep every one that is still in the list
+            // if ANY genre the user does not currently have selected is changed, it does not matter
             // the list will simply update to the most recent genres just returned from themoviedb
-            if(csValues[i].equals(currentGenrePrefValue))
-                currentlySelectedPrefValueHasChanged = false; // no change that matters
+            if(currentGenreIds.contains(csValues[i].toString()))
+                keptGenreIds.add(csValues[i].toString());
 
             //Log.i(LOGTAG, "  cs[" + i + "]: " + cs[i]);
         }
@@ -433,16 +535,20 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         // for the first time after install, in which case default to 'Any Genre'
         if(genreListPref.getValue() == null) {
             Log.i(LOGTAG, "  resetting genre list pref to 'Any Genre' because no previous genre list entry was found");
-            genreListPref.setValue(csValues[0].toString()); // cs[0] is always the default entry
+            setListPrefValue(genreListPref, csValues[0].toString()); // cs[0] is always the default entry
         }
 
         // if the user happened to have had a movie genre selected that themoviedb happened to
-        // just have changed, simply reset the users pref to 'Any Genre'
+        // just have changed, drop just that genre, and if it was the only one, reset the users pref to 'Any Genre'
         // not sure how else to handle this.. seems to be an acceptable result from a user's
         // perspective, considering that it will rarely ever happen
-        if(currentlySelectedPrefValueHasChanged) {
+        if(keptGenreIds.isEmpty()) {
             Log.i(LOGTAG, "  resetting genre list pref to 'Any Genre'");
-            genreListPref.setValue(csValues[0].toString()); // csValue[0] is always the default entry
+            setListPrefValue(genreListPref, csValues[0].toString()); // csValue[0] is always the default entry
+        }
+        else if(keptGenreIds.size() < currentGenreIds.size()) {
+            Log.i(LOGTAG, "  dropping genres themoviedb no longer has from the genre list pref");
+            setListPrefValue(genreListPref, TextUtils.join(GenreListPreferenceDialogFragment.SEPARATOR, keptGenreIds));
         }
 
         bindPreferenceSummaryToValue(genreListPref);
@@ -0,0 +1,60 @@
+package com.nate.popmoviess1;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats a Movie's release date for display, like 'March 19, 2016' in the US or '19 mars 2016' in
+ * France.  Building a DateFormat is slow, so there is one per thread (DateFormat is not thread safe)
+ * and it is only built again if the user changes the device language.
+ *
+ * <p>
+ * The date is formatted in UTC, because getReleaseEpochDay is a date and not a point in time: in
+ * any time zone west of Greenwich, formatting midnight UTC in local time would show the day before.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see Movie#getReleaseEpochDay()
+ */
+final class ReleaseDateFormatter {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private ReleaseDateFormatter() {}
+
+
+    // the DateFormat and the Locale it was built for, per thread
+    private static final class CachedFormat {
+        final Locale locale;
+        final DateFormat format;
+
+        CachedFormat(Locale locale) {
+            this.locale = locale;
+            format = DateFormat.getDateInstance(DateFormat.LONG, locale);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+    }
+
+    private static final ThreadLocal<CachedFormat> sCachedFormat = new ThreadLocal<>();
+
+
+    /**
+     * Formats a release date in the device's current locale.
+     *
+     * @param epochDay a release date from Movie.getReleaseEpochDay, must not be NO_RELEASE_DATE
+     * @return the date, formatted the long way for the current locale
+     */
+    static String format(int epochDay) {
+        Locale locale = Locale.getDefault();
+        CachedFormat cached = sCachedFormat.get();
+        if(cached == null || !cached.locale.equals(locale)) {
+            cached = new CachedFormat(locale);
+            sCachedFormat.set(cached);
+        }
+        return cached.format.format(new Date(epochDay * MILLIS_PER_DAY));
+    }
+
+
+}
@@ -0,0 +1,142 @@
+package com.nate.popmoviess1;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes sure identical requests that overlap in time only hit the network once.  The first caller
+ * for a given key actually runs the work, anybody else who asks for the same key while that is still
+ * going just waits for it and gets the very same result object back.  As soon as the work finishes the
+ * key is forgotten, so this is not a cache, it only coalesces requests that are in flight together.
+ *
+ * <p>
+ * That only happens when the requests really run at the same time on different threads.  The launch
+ * fetches run on AsyncTask.THREAD_POOL_EXECUTOR, so a PreferencesFragment recreated after a rotation
+ * asks for the genres and certifications again while the first fetches are still running, and a
+ * multi-query MovieRefreshService refresh can overlap FetchMoviesTask asking for the same pages.
+ * Every caller gets the same object, so work should return something nobody can modify, like an
+ * unmodifiable List.
+ * </p>
+ *
+ * <p>
+ * One caller giving up must not spoil the request for the others.  Nobody can cancel the shared
+ * work itself, callers only ever wait on it, and if the caller that is running it gets interrupted
+ * while it does (an AsyncTask cancelled with cancel(true)), whatever it ends up with likely failed
+ * because of that, so everybody who was waiting on it starts the request over instead of taking
+ * that result.  Either way the key is dropped the moment the work is done.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher
+ */
+class RequestCoalescer {
+
+    // request key -> the one flight that is doing the work for everybody who asked for that key
+    private final ConcurrentHashMap<String, Flight<?>> mInFlight = new ConcurrentHashMap<>();
+
+
+    // the shared work, and whether the caller running it was interrupted while it did
+    private static class Flight<T> {
+        final FutureTask<T> mTask;
+        volatile boolean mAbandoned;
+
+        Flight(final Callable<T> work) {
+            mTask = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return work.call();
+                    } finally {
+                        // set before the task completes, so every waiter that sees the result sees this
+                        if(Thread.currentThread().isInterrupted()) mAbandoned = true;
+                    }
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Runs work on the calling thread, unless an identical request is already running on some other
+     * thread, in which case this just waits for that one to finish and returns its result.  If the
+     * caller running that one was interrupted on the way, this starts over, and may end up running
+     * work itself.
+     *
+     * @param key identifies the request, use requestKey to build one from a URL
+     * @param work does the actual fetching and parsing, should handle its own checked exceptions
+     * @return whatever work returned, possibly shared with other callers, so it should be unmodifiable
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Callable<T> work) {
+        Flight<T> flight = new Flight<>(work);
+
+        while (true) {
+            Flight<?> existing = mInFlight.putIfAbsent(key, flight);
+            if(existing == null) break;
+
+            T result = (T) await(existing.mTask); // somebody else is already on it
+            if(!existing.mAbandoned) return result;
+            // its caller was interrupted, so the result is probably a failure that is not ours, go again
+        }
+
+        try {
+            flight.mTask.run();
+        } finally {
+            mInFlight.remove(key, flight);
+        }
+        return await(flight.mTask);
+    }
+
+
+    /**
+     * Builds a key for a URL that does not depend on the order the query parameters were appended in,
+     * and leaves out the api key, so two URLs for the same request always have the same key.
+     *
+     * @param url the request URL
+     * @return a normalized key for that request
+     */
+    public static String requestKey(Uri url) {
+        List<String> names = new ArrayList<>(url.getQueryParameterNames());
+        Collections.sort(names);
+
+        StringBuilder key = new StringBuilder(url.getPath());
+        char separator = '?';
+        for (String name : names) {
+            if(name.equals("api_key")) continue;
+            key.append(separator).append(name).append('=').append(url.getQueryParameter(name));
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+
+    // waits for a task without giving up on interrupts, AsyncTasks get interrupted when cancelled
+    // and the other callers sharing the task still want the result
+    private static <T> T await(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+
+}
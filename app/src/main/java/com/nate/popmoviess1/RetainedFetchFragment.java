@@ -0,0 +1,247 @@
+package com.nate.popmoviess1;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A headless Fragment that is retained across configuration changes and owns the movie fetch.
+ * MovieGridFragment is destroyed and recreated on every rotation, so if it owned FetchMoviesTask
+ * itself, the task would either be started again or would finish into a fragment that no longer
+ * exists.  This fragment has no view and is never destroyed on rotation, so a fetch that is in
+ * progress just keeps going, and nothing is fetched twice.
+ *
+ * <p>
+ * FetchMoviesTask never touches a Fragment or Activity: it only holds the application context and
+ * the filter values it was started with, and it hands its result to MovieTheater.  If the grid is not
+ * around when the result lands (mid rotation, or the user is in PreferencesActivity), MovieTheater
+ * keeps it, and the next MovieGridFragment picks it up in onStart by comparing Snapshot versions.
+ * </p>
+ *
+ * <p>
+ * Before going to the network, FetchMoviesTask asks MovieTheater which of the movies already on the
+ * device match the new filters, and shows those as a preview straight away.  When the network result
+ * lands it simply replaces the preview, so the preview only ever decides what the user looks at
+ * while they wait.
+ * </p>
+ *
+ * <p>
+ * At launch MovieTheater usually already has the list for the current filters, restored from the
+ * database, and the grid draws it on its very first frame.  Then the fetch is only a revalidation:
+ * a conditional request with the ETag from the last time, so an unchanged list costs a 304 and
+ * nothing else, and a changed one is applied to the grid as a diff.  If the revalidation fails the
+ * restored list just stays, it is still the best the app has.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see MovieGridFragment#onStart()
+ */
+public class RetainedFetchFragment extends Fragment {
+
+    private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+    private static final String TAG = "com.nate.popmoviess1.retained_fetch_fragment";
+
+    // fragments that have been committed but not added yet, findFragmentByTag can't see them until the
+    // transaction runs, main thread only
+    private static final Map<FragmentManager, RetainedFetchFragment> sPendingAdds = new WeakHashMap<>();
+
+    private FetchMoviesTask mFetchMoviesTask; // the fetch in progress, null if nothing is being fetched
+
+
+    public RetainedFetchFragment() {
+    }
+
+
+    /**
+     * Use to get the RetainedFetchFragment for an Activity.  If the Activity does not have one yet,
+     * one is created and added.  The add is committed, not executed, because this is called from
+     * fragment lifecycle methods where executePendingTransactions is not allowed, so until it runs
+     * the new fragment is remembered here and every call in the meantime gets that same one.
+     *
+     * @param fragmentManager the hosting Activity's FragmentManager
+     * @return the RetainedFetchFragment for that Activity
+     */
+    public static RetainedFetchFragment get(FragmentManager fragmentManager) {
+        RetainedFetchFragment fragment = (RetainedFetchFragment) fragmentManager.findFragmentByTag(TAG);
+        if(fragment == null) fragment = sPendingAdds.get(fragmentManager);
+        if(fragment == null) {
+            fragment = new RetainedFetchFragment();
+            sPendingAdds.put(fragmentManager, fragment);
+            // this fragment has no state worth saving, if the add is lost to a state save the
+            // next get just makes another one
+            fragmentManager.beginTransaction().add(fragment, TAG).commitAllowingStateLoss();
+        }
+        return fragment;
+    }
+
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        sPendingAdds.remove(getFragmentManager()); // findFragmentByTag finds it from now on
+    }
+
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true); // survive rotations, that is the whole point of this fragment
+    }
+
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // only reached when the hosting Activity is finishing for good, not on rotation
+        if(mFetchMoviesTask != null) mFetchMoviesTask.cancel(false);
+    }
+
+
+    /**
+     * Starts fetching movies for the filters currently in sharedPrefs, unless a fetch for those exact
+     * filters is already running, in which case that one is simply left to finish.  A running fetch
+     * for different filters is cancelled, its result would be stale by the time it arrived.
+     *
+     * @param context any context, only the application context is kept by the task
+     */
+    public void fetchMovies(Context context) {
+        FetchMoviesTask task = new FetchMoviesTask(context.getApplicationContext());
+
+        if(mFetchMoviesTask != null && mFetchMoviesTask.getStatus() != AsyncTask.Status.FINISHED) {
+            if(mFetchMoviesTask.mFilterKey.equals(task.mFilterKey)) {
+                Log.i(LOGTAG, "in fetchMovies, identical fetch already running, not starting another");
+                return;
+            }
+            mFetchMoviesTask.cancel(false);
+        }
+
+        mFetchMoviesTask = task;
+        // not the serial executor, so it never waits behind PreferencesFragment's genre and cert fetches
+        mFetchMoviesTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+
+    // true while a fetch started by this fragment has not yet delivered its result
+    public boolean isFetching() {
+        return mFetchMoviesTask != null && mFetchMoviesTask.getStatus() != AsyncTask.Status.FINISHED;
+    }
+
+
+    /**
+     * Fetches movie metadata from themoviedb based on the filter parameters the user currently has
+     * selected.  The defaults used when the prefs do not exist yet are documented in MovieQuery.
+     *
+     * <p>
+     * The filters are taken from MovieFilterStore's memory in the constructor, so doInBackground
+     * never touches sharedPrefs or reaches back into a Fragment or Activity that may be gone by then.
+     * </p>
+     *
+     * In doInBackground, the movies already stored on the device that match the filters are
+     * published to MovieTheater as a preview first, unless MovieTheater already holds the real list
+     * for these filters.
+     *
+     * In postExecute, the metadata is stored in MovieTheater's list of Movies to be used elsewhere.
+     * MovieTheater then tells MovieGridFragment (and anything else listening) about the new list.
+     * If the fetch returns no movies for any reason, MovieGridFragment shows a msg indicating so.
+     *
+     * @see MovieFilterStore#getQuery()
+     * @see MovieTheater#queryLocalMovies(MovieQuery, int)
+     * @see MovieTheater#updateMovies(List, String)
+     * @see MovieGridFragment#onMoviesChanged(MovieTheater.MoviesChangedEvent)
+     * @see TheMovieDbFetcher#fetchMovies(MovieQuery)
+     */
+    private static class FetchMoviesTask extends AsyncTask<Void, List<Movie>, List<Movie>> {
+
+        private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
+        private static final int PREVIEW_SIZE = 20; // same as a page of themoviedb results
+
+        private final Context mAppContext;
+        private final MovieQuery mFilters; // read on the main thread when the task is created
+        private final String mFilterKey;
+        private boolean mCountedAtStartup; // if so it has to tell StartupFetchBarrier when it's done
+        private boolean mRevalidating; // MovieTheater already had the list for these filters
+        private String mEtag; // from a revalidation, saved along with the list it came with
+
+        FetchMoviesTask(Context appContext) {
+            mAppContext = appContext;
+            mFilters = MovieFilterStore.get(appContext).getQuery();
+            mFilterKey = mFilters.key;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mCountedAtStartup = StartupFetchBarrier.register("movies");
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected List<Movie> doInBackground(Void... params) {
+            Log.i(LOGTAG, "just entered FetchMoviesTask.doInBackground");
+
+            MovieTheater movieTheater = MovieTheater.get(mAppContext);
+            movieTheater.awaitLoaded(); // at launch the stored list may still be on its way off the disk
+            if(mFilterKey.equals(movieTheater.getSnapshot().getFilterKey())) {
+                mRevalidating = true;
+                return revalidate();
+            }
+
+            List<Movie> preview = movieTheater.queryLocalMovies(mFilters, PREVIEW_SIZE);
+            Log.i(LOGTAG, "  local preview movies: " + preview.size());
+            if(!preview.isEmpty()) publishProgress(preview);
+
+            return new TheMovieDbFetcher(mAppContext).fetchMovies(mFilters);
+        }
+
+        // stale while revalidate, returns null if the list MovieTheater already has should stay
+        private List<Movie> revalidate() {
+            String etag = MovieRefreshService.getEtag(mAppContext, mFilterKey);
+            try {
+                TheMovieDbFetcher.ConditionalResult<List<Movie>> result =
+                        new TheMovieDbFetcher(mAppContext).fetchMoviesIfModified(mFilters, etag);
+                if(result.notModified) {
+                    Log.i(LOGTAG, "  revalidated, the stored list is still current");
+                    return null;
+                }
+                mEtag = result.etag;
+                return result.body;
+            } catch (IOException ioe) {
+                Log.e(LOGTAG, "Failed to revalidate, keeping the stored list", ioe);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(List<Movie>... previews) {
+            if(isCancelled()) return; // different filters were picked since, this preview is for the old ones
+            MovieTheater.get(mAppContext).previewMovies(previews[0], mFilterKey);
+        }
+
+        @Override
+        protected void onPostExecute(List<Movie> items) {
+            Log.i(LOGTAG, "EXITING FetchMoviesTask.onPostExecute");
+
+            // update the list of Movies in MovieTheater singleton, which will tell any listening views
+            if(items != null) {
+                MovieTheater.get(mAppContext).updateMovies(items, mFilterKey);
+                if(mRevalidating) MovieRefreshService.saveEtag(mAppContext, mFilterKey, mEtag);
+            }
+            if(mCountedAtStartup) StartupFetchBarrier.arrive("movies");
+        }
+
+        @Override
+        protected void onCancelled(List<Movie> items) {
+            if(mCountedAtStartup) StartupFetchBarrier.arrive("movies (cancelled)");
+        }
+
+    } // end inner class
+
+
+}
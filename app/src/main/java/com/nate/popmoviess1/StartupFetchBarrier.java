@@ -0,0 +1,126 @@
+package com.nate.popmoviess1;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures how long the fetches the app starts at launch take together.  On a cold start in two pane
+ * mode that is three of them, the first movie list, the genres and the certifications, and the app is
+ * not really usable until the last one is done.  They are independent of each other and all run on
+ * AsyncTask.THREAD_POOL_EXECUTOR, so the total should be about as long as the slowest one, not the
+ * three added up.
+ *
+ * <p>
+ * Every launch fetch calls register when it starts and arrive when it is done, whether it worked or
+ * not.  When the last registered fetch arrives, the barrier is passed: the time since the first
+ * register is logged and kept for getDurationMillis.  Anything that starts after that is not part of
+ * startup and is not counted.  Like TransferStats, this is for measuring, for example against a local
+ * fake server that delays each endpoint by a known amount.  Main thread only.
+ * </p>
+ *
+ * <p>
+ * It also keeps the time to first content: from PopMoviesApplication.onCreate to the first poster
+ * bitmap Picasso sets in the movie grid.  On a normal launch that is a poster of the list MovieTheater
+ * restored from the database, coming out of Picasso's disk cache before any of the fetches above are
+ * done, so it does not depend on the network at all.  The goal is FIRST_CONTENT_TARGET_MILLIS on a
+ * mid-range device, every launch logs whether it made it.
+ * </p>
+ *
+ * @author Nathan Merris
+ * @see TransferStats
+ */
+public final class StartupFetchBarrier {
+    private static final String LOGTAG = SingleFragmentActivity.N8LOG + "StartupFetchBarrier";
+
+    private static int sPending;             // registered fetches that have not arrived yet
+    private static long sStartMillis;        // when the first fetch registered
+    private static long sDurationMillis = -1; // first register to last arrive, -1 until the barrier is passed
+    private static long sFirstContentMillis = -1; // application start to the first poster in the grid
+
+    static final long FIRST_CONTENT_TARGET_MILLIS = 300;
+
+
+    private StartupFetchBarrier() {
+    }
+
+
+    /**
+     * Call when a launch fetch starts.
+     *
+     * @param name used in the log, like 'genres'
+     * @return true if the fetch is counted, and must call arrive when it is done
+     */
+    static boolean register(String name) {
+        if(sDurationMillis >= 0) return false; // startup is over
+
+        if(sPending == 0) sStartMillis = SystemClock.elapsedRealtime();
+        sPending++;
+        Log.i(LOGTAG, "in register, " + name + " started, launch fetches running: " + sPending);
+        return true;
+    }
+
+
+    /**
+     * Call when a fetch that register counted is done, or was cancelled.
+     *
+     * @param name used in the log, like 'genres'
+     */
+    static void arrive(String name) {
+        if(sPending == 0) return;
+
+        long elapsed = SystemClock.elapsedRealtime() - sStartMillis;
+        Log.i(LOGTAG, "in arrive, " + name + " done after " + elapsed + "ms");
+
+        if(--sPending == 0) {
+            sDurationMillis = elapsed;
+            Log.i(LOGTAG, "in arrive, every launch fetch is done after " + elapsed + "ms, " + TransferStats.getSummary());
+        }
+    }
+
+
+    /**
+     * Call when a poster bitmap has just been set in the movie grid.  Only the first call after the
+     * process starts counts, it is logged against FIRST_CONTENT_TARGET_MILLIS.
+     */
+    static void markFirstContent() {
+        if(sFirstContentMillis >= 0) return;
+
+        sFirstContentMillis = SystemClock.elapsedRealtime() - PopMoviesApplication.getCreatedAtMillis();
+        String message = "in markFirstContent, first poster shown " + sFirstContentMillis
+                + "ms after the app started (target " + FIRST_CONTENT_TARGET_MILLIS
+                + "ms), launch fetches still running: " + sPending;
+        if(isFirstContentWithinTarget()) Log.i(LOGTAG, message);
+        else Log.w(LOGTAG, message + ", MISSED THE TARGET");
+    }
+
+
+    /**
+     * @return true once the first poster was shown within FIRST_CONTENT_TARGET_MILLIS of the app
+     * starting, false if it was slower or has not been shown yet
+     */
+    public static boolean isFirstContentWithinTarget() {
+        return sFirstContentMillis >= 0 && sFirstContentMillis <= FIRST_CONTENT_TARGET_MILLIS;
+    }
+
+
+    /**
+     * @return ms from the app starting to the first poster in the grid, -1 if there has not been one yet
+     */
+    public static long getFirstContentMillis() { return sFirstContentMillis; }
+
+
+    /**
+     * @return ms from the first launch fetch starting to the last one finishing, -1 if they are not all done yet
+     */
+    public static long getDurationMillis() { return sDurationMillis; }
+
+
+    // for a test that measures one launch after another in the same process
+    public static void reset() {
+        sPending = 0;
+        sDurationMillis = -1;
+        sFirstContentMillis = -1;
+    }
+
+
+}
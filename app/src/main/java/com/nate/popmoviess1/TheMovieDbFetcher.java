@@ -4,20 +4,33 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 
 /**
@@ -27,173 +40,626 @@ import java.util.List;
  * this class should probably not be used in other apps because it does more than simply fetch
  * moviedb json.
  *
+ * <p>
+ * Every fetch goes through one RequestCoalescer that is shared by all TheMovieDbFetchers, so if the
+ * same request is already on the wire (say PreferencesFragment was recreated after a rotation and
+ * asked for the genres again while the first FetchGenresTask is still running), the second caller just
+ * waits for the first one and gets the same parsed result back.  Lists that may be shared like that
+ * are unmodifiable.  The conditional fetch in fetchMoviesIfModified is not coalesced, its ETag makes
+ * it a different request.
+ * </p>
+ *
+ * <p>
+ * API responses are requested gzipped and are decompressed and parsed as the bytes come in, the
+ * whole body is never buffered or turned into a String first.  They are read through byte buffers
+ * from a small pool and decoded as UTF-8 directly into JsonReader's own buffer.  TransferStats keeps
+ * track of how many bytes came over the wire versus how many the parser actually read.
+ * </p>
+ *
  * @author Nathan Merris
+ * @see RequestCoalescer
  */
 public class TheMovieDbFetcher {
     private final String LOGTAG = SingleFragmentActivity.N8LOG + getClass().getSimpleName();
 
+    private static final RequestCoalescer sInFlightRequests = new RequestCoalescer();
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // themoviedb always sends UTF-8 json
+
+    private static final int DISCOVER_PAGE_SIZE = 20; // themoviedb always returns 20 movies per discover page
+    private static final int MAX_FAN_OUT = 6; // most discover queries a single fetchMovies will send
+
+    // runs the extra queries when one set of filters needs several, idle threads die off
+    private static final ThreadPoolExecutor sFanOutExecutor = new ThreadPoolExecutor(
+            MAX_FAN_OUT - 1, MAX_FAN_OUT - 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    static {
+        sFanOutExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private Context mContext; // used to retrieve String resources for API queries
 
     public TheMovieDbFetcher(Context context) { mContext = context; }
 
 
-    // boilerplate networking code taken from Big Nerd Ranch Android Programming, 2nd ed
-    // use getUrlBytes when downloading pics or other non-string data
-    public byte[] getUrlBytes(String urlSpec) throws IOException {
+    // implemented by each fetch method to pull its objects straight off the response stream
+    private interface JsonStreamParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+
+    /**
+     * The result of a conditional request: either the parsed body and the ETag that came with it,
+     * or notModified if the server said the copy we already have is still good.
+     */
+    public static class ConditionalResult<T> {
+        public final T body;           // null when notModified
+        public final String etag;      // the validator to send next time, may be null
+        public final boolean notModified;
+
+        ConditionalResult(T body, String etag, boolean notModified) {
+            this.body = body;
+            this.etag = etag;
+            this.notModified = notModified;
+        }
+    }
+
+
+    // unconditional version of fetchJson, for callers that do not keep ETags around
+    private <T> T fetchJson(String urlSpec, JsonStreamParser<T> parser) throws IOException {
+        return fetchJson(urlSpec, null, parser).body;
+    }
+
+
+    /**
+     * Queries a themoviedb API URL and hands the response to parser as a stream.  The response is
+     * requested gzipped, and if the server obliges it is decompressed on the fly as the parser reads,
+     * so parsing starts with the first bytes off the wire instead of after the last.  Brotli is not
+     * requested because the platform has no decoder for it.
+     *
+     * @param urlSpec the themoviedb API URL
+     * @param ifNoneMatch the ETag from the last time this URL was fetched, or null to always get a body
+     * @param parser reads the result out of the json stream
+     * @return whatever parser returned, or a notModified result if the server answered 304
+     * @throws IOException if the request fails or the json is malformed
+     */
+    private <T> ConditionalResult<T> fetchJson(String urlSpec, String ifNoneMatch,
+                                               JsonStreamParser<T> parser) throws IOException {
         URL url = new URL(urlSpec);
         HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        // asking explicitly means HttpURLConnection leaves decompression to us, so the wire
+        // bytes can be counted before they are inflated
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if(ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+
+        JsonReader reader = null;
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            InputStream in = connection.getInputStream();
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.i(LOGTAG, "  " + url.getPath() + " not modified since last fetch");
+                return new ConditionalResult<>(null, ifNoneMatch, true);
+            }
+
+            CountingInputStream wireIn = new CountingInputStream(connection.getInputStream());
             if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
                 throw new IOException(connection.getResponseMessage() + ": with " + urlSpec);
             }
-            int bytesRead = 0;
-            byte[] buffer = new byte[1024];
-            while ((bytesRead = in.read(buffer)) > 0) {
-                out.write(buffer, 0, bytesRead);
-            }
-            out.close();
-            return out.toByteArray();
+
+            InputStream bodyIn = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                    ? new GZIPInputStream(wireIn) : wireIn;
+            CountingInputStream decodedIn = new CountingInputStream(bodyIn);
+
+            // JsonReader does its own buffering, so it reads straight from the pooled byte buffer
+            reader = new JsonReader(new PooledUtf8Reader(decodedIn, connection.getContentLength()));
+            T result = parser.parse(reader);
+
+            TransferStats.record(wireIn.getCount(), decodedIn.getCount());
+            Log.i(LOGTAG, "  fetched " + url.getPath() + ", wire bytes: " + wireIn.getCount()
+                    + ", decoded bytes: " + decodedIn.getCount());
+
+            return new ConditionalResult<>(result, connection.getHeaderField("ETag"), false);
+
+        } catch (IllegalStateException ise) {
+            // JsonReader throws this when the json is not shaped the way the parser expects
+            throw new IOException("Unexpected json from " + url.getPath(), ise);
+        } catch (NumberFormatException nfe) {
+            // and this when a codec asks for a number and gets some other string
+            throw new IOException("Unexpected json from " + url.getPath(), nfe);
         } finally {
+            if(reader != null) reader.close();
             connection.disconnect();
         }
     }
 
 
-    // returns the URL fetch as a string, use when parsing json with async tasks
-    public String getUrlString(String urlSpec) throws IOException {
-        return new String(getUrlBytes(urlSpec));
+    /**
+     * A few byte arrays that responses are read through, so every request does not allocate and
+     * throw away its own.  Sized from Content-Length, between MIN_SIZE and MAX_SIZE: a small body
+     * fits in one read, and a big one still only needs a window of it.  Any thread can use it.
+     */
+    static final class BufferPool {
+        static final int MIN_SIZE = 8 * 1024;
+        static final int MAX_SIZE = 64 * 1024;
+        private static final int MAX_POOLED = 4; // about as many requests as are ever on the wire at once
+
+        private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>(); // guarded by itself
+
+        private BufferPool() {}
+
+        /**
+         * @param contentLength the Content-Length of the response, or -1 if there was none
+         * @return a buffer of at least MIN_SIZE, give it back with release when done
+         */
+        static byte[] acquire(long contentLength) {
+            int size = (int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, contentLength));
+            synchronized (sBuffers) {
+                for (Iterator<byte[]> it = sBuffers.iterator(); it.hasNext();) {
+                    byte[] buffer = it.next();
+                    if(buffer.length >= size) {
+                        it.remove();
+                        return buffer;
+                    }
+                }
+            }
+            return new byte[size];
+        }
+
+        static void release(byte[] buffer) {
+            synchronized (sBuffers) {
+                if(sBuffers.size() < MAX_POOLED) sBuffers.push(buffer);
+            }
+        }
+    }
+
+
+    /**
+     * Decodes UTF-8 straight from a pooled byte buffer into the caller's char array, which for
+     * JsonReader is its own buffer.  InputStreamReader would allocate an 8KB byte buffer per request,
+     * and a BufferedReader around it another 8KB of chars, only to copy what JsonReader buffers
+     * anyway.  No String is built here, JsonReader only builds the ones the codecs ask for.  Malformed
+     * bytes become U+FFFD, the same as InputStreamReader does.  Closing it gives the buffer back to
+     * BufferPool.
+     */
+    static final class PooledUtf8Reader extends Reader {
+        private final InputStream mIn;
+        private final CharsetDecoder mDecoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] mBuffer; // null once closed
+        private final ByteBuffer mBytes; // mBuffer, position to limit is what has not been decoded yet
+        private boolean mEndOfInput;
+        private boolean mFlushed;
+        private char mPendingChar; // the second half of a surrogate pair that did not fit last time
+        private boolean mHasPendingChar;
+
+        PooledUtf8Reader(InputStream in, long contentLength) {
+            mIn = in;
+            mBuffer = BufferPool.acquire(contentLength);
+            mBytes = ByteBuffer.wrap(mBuffer);
+            mBytes.limit(0); // nothing read yet
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int count) throws IOException {
+            if(mBuffer == null) throw new IOException("Reader is closed");
+            if(count == 0) return 0;
+
+            int start = offset;
+            if(mHasPendingChar) {
+                chars[offset++] = mPendingChar;
+                count--;
+                mHasPendingChar = false;
+                if(count == 0) return 1;
+            }
+
+            CharBuffer out = CharBuffer.wrap(chars, offset, count);
+            while (!mFlushed) {
+                CoderResult result = mDecoder.decode(mBytes, out, mEndOfInput);
+                if(result.isOverflow()) {
+                    if(out.position() == offset) {
+                        // room for one char, but the next code point needs two
+                        CharBuffer pair = CharBuffer.allocate(2);
+                        mDecoder.decode(mBytes, pair, mEndOfInput);
+                        out.put(pair.get(0));
+                        if(pair.position() > 1) {
+                            mPendingChar = pair.get(1);
+                            mHasPendingChar = true;
+                        }
+                    }
+                    break;
+                }
+
+                if(out.position() > offset) break; // hand back what there is rather than wait for more
+                if(mEndOfInput) {
+                    mDecoder.flush(out);
+                    mFlushed = true;
+                }
+                else {
+                    fill();
+                }
+            }
+
+            int decoded = out.position() - start;
+            return decoded == 0 ? -1 : decoded;
+        }
+
+        // moves any undecoded bytes to the front of the buffer and reads more in after them
+        private void fill() throws IOException {
+            mBytes.compact();
+            int bytesRead = mIn.read(mBuffer, mBytes.position(), mBytes.remaining());
+            if(bytesRead < 0) mEndOfInput = true;
+            else mBytes.position(mBytes.position() + bytesRead);
+            mBytes.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(mBuffer == null) return;
+            try {
+                mIn.close();
+            } finally {
+                BufferPool.release(mBuffer);
+                mBuffer = null;
+            }
+        }
+    }
+
+
+    // counts the bytes that pass through it, used to compare wire bytes with decoded bytes
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        long getCount() { return mCount; }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int bytesRead = super.read(buffer, offset, count);
+            if(bytesRead > 0) mCount += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
     }
 
 
     /**
-     * Fetches json data based on input paramaters provided.  The json is parsed and packed into
+     * Fetches json data based on the filters provided.  The json is parsed and packed into
      * Movie objects via parseMovies, and then stored in a List.  As of stage 1 of this project, all these params
      * are being read in from sharedPrefs, but in stage 2 I want everything to be in MovieTheater.
      * It would be less confusing if everything was in MovieTheater.  I ran into trouble when I
      * realized that Android doesn't write values to sharePrefs until after onPreferenceChange
      * returns, so I just wrote them all in myself, but I think that's kind of odd and I don't like it.
      *
-     * @param cert the Certification used by themoviedb API to search by a given cert (like 'G', 'PG', etc),
-     *             pass in 'Any Rating' to fetch movies with any certification
-     * @param releaseDate the release date to search by, use four digits, like '1989', this will be ignored
-     *                    if querySpecificYear is <code>false</code>
-     * @param genreId the moviedb numerical genre id to search by, pass in -1 to search by 'Any Genre'
-     * @param sortby the moviedb sortby parameter, this is required, although the call will not fail
-     *               if ignored, but the resulting json will not be what you are expecting
-     * @param querySpecificYear if <code>true</code>, must also provide a releaseDate, otherwise all
-     *                          years will be searched
-     * @return an updated list of Movies ready for the MovieTheater
+     * <p>
+     * Whatever themoviedb can express in a single query goes in a single query: a list of genres is
+     * sent as 'any of these' with '|', and one range of years as a release date window.  Years that are
+     * not one contiguous range (say '1985, 1990-1995') can not be, so each range gets its own query,
+     * the queries all run at the same time, and their results (each already sorted by themoviedb) are
+     * merged back together by MovieListMerger.  The merged list holds the same number of movies a
+     * single query would, the best of all of them.
+     * </p>
+     *
+     * @param filters the movie filters to query with, see MovieQuery for what each one means
+     * @return an updated list of Movies ready for the MovieTheater, empty if the fetch failed
      * @see Movie
-     * @see TheMovieDbFetcher#parseMovies(List, JSONObject)
+     * @see MovieListMerger#merge(List, String, int)
+     * @see TheMovieDbFetcher#parseMovies(List, JsonReader)
      */
-    public List<Movie> fetchMovies(String cert, String releaseDate,
-                                   int genreId, String sortby, boolean querySpecificYear) {
+    public List<Movie> fetchMovies(MovieQuery filters) {
+        if(!filters.hasValidYears()) {
+            Log.i(LOGTAG, "  year filter is not a valid year, not asking themoviedb: " + filters.releaseDate);
+            return new ArrayList<>();
+        }
+        List<Uri> uris = buildDiscoverUris(filters);
 
-        List<Movie> movies = new ArrayList<>();
+        try {
+            List<Movie> movies = fetchDiscoverPages(uris, filters.sortBy);
+            Log.i(LOGTAG, "  num movies after TheMovieDbFetcher.fetchMovies: " + movies.size());
+            return movies;
+        } catch (IOException ioe) {
+            Log.e(LOGTAG, "Failed to fetch items", ioe);
+            return new ArrayList<>();
+        }
+    }
 
-        try { // build the URL for themoviedb GET for 'discover movies'
 
-            Uri.Builder builder = new Uri.Builder();
+    /**
+     * Same query as fetchMovies, but sent as a conditional request, so if the results have not
+     * changed since the ETag was handed out, themoviedb just answers 304 and nothing is downloaded
+     * or parsed.  Used by MovieRefreshService, which runs in the background and would rather not
+     * spend the user's data on a list they already have.  When the filters need more than one query
+     * there is no single ETag for the result, so those are always fetched in full.
+     *
+     * @param filters the movie filters to query with
+     * @param etag the ETag from the last time these filters were fetched, may be null
+     * @return the fresh movie list and its ETag, or a notModified result
+     * @throws IOException if the request fails, unlike fetchMovies this does not swallow errors
+     *                     because the caller needs to know not to replace the list it already has
+     */
+    public ConditionalResult<List<Movie>> fetchMoviesIfModified(MovieQuery filters, String etag)
+            throws IOException {
 
-            // build a URL to send to themoviedb
-            builder.scheme("https")
-                    .authority("api.themoviedb.org")
-                    .appendPath("3")
-                    .appendPath("discover")
-                    .appendPath("movie") // https://api.themoviedb.org/3/discover/movie
-                    .appendQueryParameter("certification_country", "US"); // US movies only
+        if(!filters.hasValidYears()) {
+            // same as fetchMovies, themoviedb would only say there are no movies
+            return new ConditionalResult<List<Movie>>(new ArrayList<Movie>(), null, false);
+        }
 
-            // when cert country is specificed, API also then requires a cert or a 'less than or equal to cert'
-            if(!cert.equals(mContext.getString(R.string
-                    .themoviedb_any_certification_filter_name_value))) {
-                // only query for movies with user's selected certification
-                builder.appendQueryParameter("certification", cert);
-            }
-            else {
-                // if user has 'Any Rating' selected, search them all
-                // could add parental lockout features
-                builder.appendQueryParameter("certification.lte", "R");
+        List<Uri> uris = buildDiscoverUris(filters);
+        if(uris.size() > 1) {
+            return new ConditionalResult<>(fetchDiscoverPages(uris, filters.sortBy), null, false);
+        }
+
+        return fetchJson(uris.get(0).toString(), etag, new JsonStreamParser<List<Movie>>() {
+            @Override
+            public List<Movie> parse(JsonReader reader) throws IOException {
+                List<Movie> movies = new ArrayList<>();
+                parseMovies(movies, reader);
+                return movies;
             }
+        });
+    }
 
-            if(querySpecificYear) { // year toggle switch is ON (true)
-                // query for movies made only in the year the user has selected
-                // could add a double sliding scale to be able to select a range of years
-                builder.appendQueryParameter("primary_release_year", releaseDate);
+
+    /**
+     * Fetches the first page of every query in uris and merges them.  This thread runs the first
+     * query itself while sFanOutExecutor runs the rest, so a single query never changes threads.
+     *
+     * @param uris the discover queries, from buildDiscoverUris
+     * @param sortBy the sort_by param all of the queries were built with
+     * @return the merged movies
+     * @throws IOException if any one of the queries fails, a partial merge would be missing movies
+     *                     without anybody being able to tell
+     */
+    private List<Movie> fetchDiscoverPages(List<Uri> uris, String sortBy) throws IOException {
+        List<Future<List<Movie>>> others = new ArrayList<>();
+        for (final Uri uri : uris.subList(1, uris.size())) {
+            others.add(sFanOutExecutor.submit(new Callable<List<Movie>>() {
+                @Override
+                public List<Movie> call() throws IOException {
+                    return fetchDiscoverPage(uri);
+                }
+            }));
+        }
+
+        try {
+            List<List<Movie>> pages = new ArrayList<>();
+            pages.add(fetchDiscoverPage(uris.get(0)));
+            if(others.isEmpty()) return new ArrayList<>(pages.get(0)); // nothing to merge
+
+            for (Future<List<Movie>> other : others) {
+                pages.add(other.get());
+            }
+            return MovieListMerger.merge(pages, sortBy, DISCOVER_PAGE_SIZE);
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the other queries");
+        } catch (ExecutionException ee) {
+            if(ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            // only the ones that have not started yet are stopped, a running one may be the shared
+            // fetch in sInFlightRequests that some other caller is waiting on, so it is not interrupted
+            for (Future<List<Movie>> other : others) {
+                other.cancel(false);
             }
+        }
+    }
 
-            if(genreId != -1) { // -1 means no genre selected
-                // query for movies only with the genre the user has selected
-                // could change to check box pref to be able to select multiple genres
-                builder.appendQueryParameter("with_genres", String.valueOf(genreId));
+
+    // fetches and parses the first page of one discover query, identical queries share one fetch
+    private List<Movie> fetchDiscoverPage(final Uri uri) throws IOException {
+        Log.i(LOGTAG, "just built URL: " + uri);
+
+        List<Movie> movies = sInFlightRequests.execute(RequestCoalescer.requestKey(uri), new Callable<List<Movie>>() {
+            @Override
+            public List<Movie> call() {
+                final List<Movie> movies = new ArrayList<>();
+
+                try {
+                    // query themoviedb API and parse the movies straight off the response stream
+                    fetchJson(uri.toString(), new JsonStreamParser<Void>() {
+                        @Override
+                        public Void parse(JsonReader reader) throws IOException {
+                            parseMovies(movies, reader); // parse it and fill movies List
+                            return null;
+                        }
+                    });
+                    return Collections.unmodifiableList(movies); // possibly shared with other callers
+
+                } catch (IOException ioe) {
+                    Log.e(LOGTAG, "Failed to fetch items", ioe);
+                }
+
+                return null; // the failure is logged above, and shared with anybody who was waiting
             }
+        });
 
-            // if you don't specify a min number of votes, you end up with really bogus
-            // results, esp when querying by highest rated, because even a single vote of
-            // 10/10 for some oddball movie will be returned..
-            if(cert.equals("NC-17")) // there are few NC-17 movies, so lower min vote count
-                builder.appendQueryParameter("vote_count.gte", "15");
-            else // arbitrarily set the min num votes for all other
-                builder.appendQueryParameter("vote_count.gte", "20");
+        if(movies == null) throw new IOException("Failed to fetch " + uri.getPath());
+        return movies;
+    }
 
-            // every query will have a sort by parameter
-            builder.appendQueryParameter("sort_by", sortby);
 
-            // every query will have an API key
-            builder.appendQueryParameter("api_key",
-                mContext.getResources().getString(R.string.themoviedb_api_key));
+    /**
+     * Builds the URLs for themoviedb GET for 'discover movies'.  Usually that is exactly one URL,
+     * there is only more than one when the filters have years that are not one contiguous range, then
+     * there is one URL per range, at most MAX_FAN_OUT of them.
+     *
+     * @param filters the movie filters to query with, must have valid years
+     * @return the URLs, never empty
+     */
+    private List<Uri> buildDiscoverUris(MovieQuery filters) {
+        List<Uri> uris = new ArrayList<>();
 
-            String url = builder.build().toString();
-            Log.i(LOGTAG, "just built URL: " + url);
+        if(!filters.querySpecificYear) {
+            uris.add(buildDiscoverUri(filters, null));
+        }
+        else {
+            for (MovieQuery.YearRange range : filters.years) {
+                if(uris.size() == MAX_FAN_OUT) {
+                    Log.w(LOGTAG, "  too many year ranges, only querying the first " + MAX_FAN_OUT);
+                    break;
+                }
+                uris.add(buildDiscoverUri(filters, range));
+            }
+        }
 
-            String jsonString = getUrlString(url); // call getUrlString, which will query themoviedb API
-            //Log.i(LOGTAG, "  and Received JSON: " + jsonString);
+        return uris;
+    }
 
-            JSONObject jsonBody = new JSONObject(jsonString); // convert the returned data to a JSON object
 
-            parseMovies(movies, jsonBody); // parse it and fill movies List
+    // builds a single discover URL, range is null unless the filters have parsed year ranges
+    private Uri buildDiscoverUri(MovieQuery filters, MovieQuery.YearRange range) {
 
-            Log.i(LOGTAG, "  num movies after TheMovieDbFetcher.fetchMovies: " + movies.size());
+        Uri.Builder builder = new Uri.Builder();
 
-        } catch (IOException ioe) {
-            Log.e(LOGTAG, "Failed to fetch items", ioe);
-        } catch (JSONException je) {
-            Log.e(LOGTAG, "Failed to parse JSON", je);
+        // build a URL to send to themoviedb
+        builder.scheme("https")
+                .authority("api.themoviedb.org")
+                .appendPath("3")
+                .appendPath("discover")
+                .appendPath("movie") // https://api.themoviedb.org/3/discover/movie
+                .appendQueryParameter("certification_country", "US"); // US movies only
+
+        // when cert country is specificed, API also then requires a cert or a 'less than or equal to cert'
+        if(!filters.anyCert) {
+            // only query for movies with user's selected certification
+            builder.appendQueryParameter("certification", filters.cert);
+        }
+        else {
+            // if user has 'Any Rating' selected, search them all
+            // could add parental lockout features
+            builder.appendQueryParameter("certification.lte", "R");
         }
 
-        return movies;
+        if(range != null) { // year toggle switch is ON (true), and the years were valid
+            if(range.isSingleYear()) {
+                // query for movies made only in the year the user has selected
+                builder.appendQueryParameter("primary_release_year", String.valueOf(range.from));
+            }
+            else {
+                // a range of years is just a window of release dates as far as themoviedb is concerned
+                builder.appendQueryParameter("primary_release_date.gte", range.from + "-01-01")
+                        .appendQueryParameter("primary_release_date.lte", range.to + "-12-31");
+            }
+        }
+
+        if(filters.genreIds.length > 0) { // no ids means no genre selected
+            // query for movies with any one of the genres the user has selected, '|' means OR
+            StringBuilder genres = new StringBuilder();
+            for (int genreId : filters.genreIds) {
+                if(genres.length() > 0) genres.append('|');
+                genres.append(genreId);
+            }
+            builder.appendQueryParameter("with_genres", genres.toString());
+        }
+
+        // see MovieQuery for why there is always a min number of votes
+        builder.appendQueryParameter("vote_count.gte", String.valueOf(filters.minVoteCount));
+
+        // every query will have a sort by parameter
+        builder.appendQueryParameter("sort_by", filters.sortBy);
 
+        // every query will have an API key
+        builder.appendQueryParameter("api_key",
+            mContext.getResources().getString(R.string.themoviedb_api_key));
+
+        return builder.build();
     }
 
 
     /**
-     * Converts a json body to a list of Movies using Gson.  It is critical that Movie contains
-     * fields that match the json precisely.
+     * Converts a json body to a list of Movies with Movie.JSON_CODEC, one movie at a time as they
+     * come off the stream.
      *
      * @param movies the list of Movies
-     * @param jsonBody the json to parse
+     * @param reader the json to parse, positioned at the start of the response body
      * @see Movie
-     * @see TheMovieDbFetcher#parseMovies(List, JSONObject)
      */
-    private void parseMovies(List<Movie> movies, JSONObject jsonBody)
-            throws /*IOException,*/ JSONException {
+    private void parseMovies(List<Movie> movies, JsonReader reader) throws IOException {
 
-        JSONArray moviesJsonArray = jsonBody.getJSONArray("results"); // get movies array
-        Gson gson = new Gson();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if(!reader.nextName().equals("results")) { // page, total_results, etc are not used
+                reader.skipValue();
+                continue;
+            }
 
-        for (int i = 0; i < moviesJsonArray.length(); i++) {
-            //Log.i(LOGTAG, "  inside parseMovies, parsing move# " + i);
+            Movie.JSON_CODEC.readArray(reader, movies); // the movies array
+        }
+        reader.endObject();
 
-            String str = moviesJsonArray.getJSONObject(i).toString();
+    }
 
-            Movie movieObj = gson.fromJson(str, Movie.class); // create the Movie object
 
-            movies.add(movieObj); // add the just created object to the List
-            //Log.i(LOGTAG, "just put genre-id: " + certificationJsonObject.getInt("id") + ", and genre-name: " + certificationJsonObject.getString("name"));
+    /**
+     * Fetches the full details for a single movie from themoviedb.  Videos and reviews are appended
+     * to the same response with append_to_response, so everything the detail screen could want comes
+     * back in one round trip instead of three.
+     *
+     * @param movieId the moviedb id of the movie
+     * @return the details, or null if they could not be fetched for any reason
+     * @see MovieDetail
+     * @see TheMovieDbFetcher#parseMovieDetail(JsonReader)
+     */
+    public MovieDetail fetchMovieDetail(int movieId) {
+
+        // build the URL for themoviedb GET for a single movie
+        Uri.Builder builder = new Uri.Builder();
+        builder.scheme("https")
+                .authority("api.themoviedb.org")
+                .appendPath("3")
+                .appendPath("movie")
+                .appendPath(String.valueOf(movieId)) // https://api.themoviedb.org/3/movie/{id}
+                .appendQueryParameter("append_to_response", "videos,reviews")
+                .appendQueryParameter("api_key",
+                        mContext.getResources().getString(R.string.themoviedb_api_key));
+
+        final Uri uri = builder.build();
+
+        return sInFlightRequests.execute(RequestCoalescer.requestKey(uri), new Callable<MovieDetail>() {
+            @Override
+            public MovieDetail call() {
+                try {
+                    // query themoviedb API and parse the details straight off the response stream
+                    return fetchJson(uri.toString(), new JsonStreamParser<MovieDetail>() {
+                        @Override
+                        public MovieDetail parse(JsonReader reader) throws IOException {
+                            return parseMovieDetail(reader);
+                        }
+                    });
+
+                } catch (IOException ioe) {
+                    Log.e(LOGTAG, "Failed to fetch items", ioe);
+                }
+
+                return null;
+            }
+        });
+    }
 
-        }
 
+    /**
+     * Converts a json body to a MovieDetail with MovieDetail.JSON_CODEC.
+     *
+     * @param reader the json to parse, straight from themoviedb
+     * @return the parsed MovieDetail
+     */
+    private MovieDetail parseMovieDetail(JsonReader reader) throws IOException {
+        return MovieDetail.JSON_CODEC.read(reader);
     }
 
 
@@ -203,40 +669,46 @@ public class TheMovieDbFetcher {
      *
      * @return the list of most of the available moviedb genres user can filter by
      * @see com.nate.popmoviess1.MovieTheater.Genre
-     * @see TheMovieDbFetcher#parseGenres(List, JSONObject)
+     * @see TheMovieDbFetcher#parseGenres(List, JsonReader)
      */
     public List<MovieTheater.Genre> fetchAvailableGenres() {
 
-        List<MovieTheater.Genre> availableGenres = new ArrayList<>();
-
-        try { // build the URL for themoviedb GET for genres
-
-            Uri.Builder builder = new Uri.Builder();
-            builder.scheme("https")
-                    .authority("api.themoviedb.org")
-                    .appendPath("3")
-                    .appendPath("genre")
-                    .appendPath("movie")
-                    .appendPath("list") // https://api.themoviedb.org/3/genre/movie/list
-                    .appendQueryParameter("api_key",
-                            mContext.getResources().getString(R.string.themoviedb_api_key));
-
-            String url = builder.build().toString();
-            String jsonString = getUrlString(url); // call getUrlString, which will query themoviedb API
-            //Log.i(LOGTAG, "Received JSON: " + jsonString);
-
-            JSONObject jsonBody = new JSONObject(jsonString); // convert the returned data to a JSON object
-
-            // parseGenres fills availableGenres, all it needs is a reference to it and a JSONObject
-            parseGenres(availableGenres, jsonBody);
-
-        } catch (IOException ioe) {
-            Log.e(LOGTAG, "Failed to fetch items", ioe);
-        } catch (JSONException je) {
-            Log.e(LOGTAG, "Failed to parse JSON", je);
-        }
-
-        return availableGenres;
+        // build the URL for themoviedb GET for genres
+        Uri.Builder builder = new Uri.Builder();
+        builder.scheme("https")
+                .authority("api.themoviedb.org")
+                .appendPath("3")
+                .appendPath("genre")
+                .appendPath("movie")
+                .appendPath("list") // https://api.themoviedb.org/3/genre/movie/list
+                .appendQueryParameter("api_key",
+                        mContext.getResources().getString(R.string.themoviedb_api_key));
+
+        final Uri uri = builder.build();
+
+        return sInFlightRequests.execute(RequestCoalescer.requestKey(uri), new Callable<List<MovieTheater.Genre>>() {
+            @Override
+            public List<MovieTheater.Genre> call() {
+                final List<MovieTheater.Genre> availableGenres = new ArrayList<>();
+
+                try {
+                    // parseGenres fills availableGenres straight off the response stream
+                    fetchJson(uri.toString(), new JsonStreamParser<Void>() {
+                        @Override
+                        public Void parse(JsonReader reader) throws IOException {
+                            parseGenres(availableGenres, reader);
+                            return null;
+                        }
+                    });
+
+                } catch (IOException ioe) {
+                    Log.e(LOGTAG, "Failed to fetch items", ioe);
+                    availableGenres.clear(); // never hand back half a list
+                }
+
+                return Collections.unmodifiableList(availableGenres); // possibly shared with other callers
+            }
+        });
     }
 
     /**
@@ -245,10 +717,10 @@ public class TheMovieDbFetcher {
      * moviedb genre for 'Foreign' is stripped out here.
      *
      * @param availableGenres the list of Genres that this method should put the data after parsing it
-     * @param jsonBody the unparsed json body to devour
+     * @param reader the json body to devour, positioned at the start of the response body
      */
-    private void parseGenres(List<MovieTheater.Genre> availableGenres, JSONObject jsonBody)
-            throws IOException, JSONException {
+    private void parseGenres(List<MovieTheater.Genre> availableGenres, JsonReader reader)
+            throws IOException {
 
         // themoviedb doesn't give a 'search all genres' json object, so make one here
         MovieTheater.Genre anyGenreObject = new MovieTheater.Genre(
@@ -257,23 +729,21 @@ public class TheMovieDbFetcher {
         availableGenres.add(anyGenreObject);
 
 
-        JSONArray genresJsonArray = jsonBody.getJSONArray("genres");
-
-        for (int i = 0; i < genresJsonArray.length(); i++) {
-            // get a single moviedb genre JSON object from jsonBody
-            JSONObject genreJsonObject = genresJsonArray.getJSONObject(i);
-            // create a new MovieTheater.Genre object and provide it with a genre id and name
-            MovieTheater.Genre genreObject = new MovieTheater.Genre(
-                    genreJsonObject.getInt("id"),
-                    genreJsonObject.getString("name"));
+        List<MovieTheater.Genre> genres = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if(reader.nextName().equals("genres")) MovieTheater.Genre.JSON_CODEC.readArray(reader, genres);
+            else reader.skipValue();
+        }
+        reader.endObject();
 
+        for (MovieTheater.Genre genreObject : genres) {
             // I'm only searching for US movies in this app, so don't add the Foreign genre to the list
-            if(genreObject.name.equals("Foreign"))
+            if(genreObject.name == null || genreObject.name.equals("Foreign"))
                 continue;
 
-            // add the just created object to the List
+            // add the just parsed object to the List
             availableGenres.add(genreObject);
-            //Log.i(LOGTAG, "just put genre-id: " + genreJsonObject.getInt("id") + ", and genre-name: " + genreJsonObject.getString("name"));
         }
 
 
@@ -307,45 +777,51 @@ public class TheMovieDbFetcher {
      *
      * @return the list of all available certs that user can filter by
      * @see com.nate.popmoviess1.MovieTheater.Certification
-     * @see TheMovieDbFetcher#parseCertifications(List, JSONObject)
+     * @see TheMovieDbFetcher#parseCertifications(List, JsonReader)
      */
     public List<MovieTheater.Certification> fetchAvailableCertifications() {
 
-        List<MovieTheater.Certification> availableCertifications = new ArrayList<>();
-
-        try { // build the URL for themoviedb GET for certifications
-
-            Uri.Builder builder = new Uri.Builder();
-            builder.scheme("https")
-                    .authority("api.themoviedb.org")
-                    .appendPath("3")
-                    .appendPath("certification")
-                    .appendPath("movie")
-                    .appendPath("list") // https://api.themoviedb.org/3/certification/movie/list
-                    .appendQueryParameter("api_key",
-                            mContext.getResources().getString(R.string.themoviedb_api_key));
-
-            String url = builder.build().toString();
-            String jsonString = getUrlString(url); // call getUrlString, which will query themoviedb API
-            //Log.i(LOGTAG, "Received JSON: " + jsonString);
-
-            JSONObject jsonBody = new JSONObject(jsonString); // convert the returned data to a JSON object
-
-            // parseGenres fills availableGenres, all it needs is a reference to it and a JSONObject
-            parseCertifications(availableCertifications, jsonBody);
-
-        } catch (IOException ioe) {
-            Log.e(LOGTAG, "Failed to fetch items", ioe);
-        } catch (JSONException je) {
-            Log.e(LOGTAG, "Failed to parse JSON", je);
-        }
-
-        return availableCertifications;
+        // build the URL for themoviedb GET for certifications
+        Uri.Builder builder = new Uri.Builder();
+        builder.scheme("https")
+                .authority("api.themoviedb.org")
+                .appendPath("3")
+                .appendPath("certification")
+                .appendPath("movie")
+                .appendPath("list") // https://api.themoviedb.org/3/certification/movie/list
+                .appendQueryParameter("api_key",
+                        mContext.getResources().getString(R.string.themoviedb_api_key));
+
+        final Uri uri = builder.build();
+
+        return sInFlightRequests.execute(RequestCoalescer.requestKey(uri), new Callable<List<MovieTheater.Certification>>() {
+            @Override
+            public List<MovieTheater.Certification> call() {
+                final List<MovieTheater.Certification> availableCertifications = new ArrayList<>();
+
+                try {
+                    // parseCertifications fills availableCertifications straight off the response stream
+                    fetchJson(uri.toString(), new JsonStreamParser<Void>() {
+                        @Override
+                        public Void parse(JsonReader reader) throws IOException {
+                            parseCertifications(availableCertifications, reader);
+                            return null;
+                        }
+                    });
+
+                } catch (IOException ioe) {
+                    Log.e(LOGTAG, "Failed to fetch items", ioe);
+                    availableCertifications.clear(); // never hand back half a list
+                }
+
+                return Collections.unmodifiableList(availableCertifications); // possibly shared with other callers
+            }
+        });
     }
 
 
-    private void parseCertifications(List<MovieTheater.Certification> availableCertifications, JSONObject jsonBody)
-            throws IOException, JSONException {
+    private void parseCertifications(List<MovieTheater.Certification> availableCertifications, JsonReader reader)
+            throws IOException {
 
 
         // themoviedb doesn't give a 'search all certifications' json object, so make one here
@@ -357,23 +833,28 @@ public class TheMovieDbFetcher {
         availableCertifications.add(anyCertificationObject);
 
 
-        JSONArray certificationsJsonArray = jsonBody
-                .getJSONObject("certifications").getJSONArray("US"); // get certs for USA
-
-        for (int i = 0; i < certificationsJsonArray.length(); i++) {
-            // get a single moviedb genre JSON object from jsonBody
-            JSONObject certificationJsonObject = certificationsJsonArray.getJSONObject(i);
-            // create a new MovieTheater.Certification object and provide it with a genre id and name
-            MovieTheater.Certification certificationObject = new MovieTheater.Certification(
-                    certificationJsonObject.getString("certification"),
-                    certificationJsonObject.getString("meaning"),
-                    Integer.valueOf(certificationJsonObject.getString("order")));
-
-            // add the just created object to the List
-            availableCertifications.add(certificationObject);
-            //Log.i(LOGTAG, "just put genre-id: " + certificationJsonObject.getInt("id") + ", and genre-name: " + certificationJsonObject.getString("name"));
+        boolean foundUS = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if(!reader.nextName().equals("certifications")) {
+                reader.skipValue();
+                continue;
+            }
 
+            reader.beginObject(); // one array per country
+            while (reader.hasNext()) {
+                if(reader.nextName().equals("US")) { // get certs for USA
+                    MovieTheater.Certification.JSON_CODEC.readArray(reader, availableCertifications);
+                    foundUS = true;
+                }
+                else reader.skipValue();
+            }
+            reader.endObject();
         }
+        reader.endObject();
+
+        // without the US certs there is nothing to filter by, treat it like any other bad response
+        if(!foundUS) throw new IOException("No US certifications in the response");
 
         
         // UDACITY REVIEWER, READ THIS AND TEST IF YOU WISH:
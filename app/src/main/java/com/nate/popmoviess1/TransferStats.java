@@ -0,0 +1,66 @@
+package com.nate.popmoviess1;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of how many bytes TheMovieDbFetcher has pulled over the wire versus how many bytes
+ * of json the parser actually read after decompression.  The difference is the bandwidth saved by
+ * asking for gzipped responses.  Totals are for the life of the process, call reset to start over,
+ * for example before pointing the app at a local fake server to measure a discover query.
+ *
+ * @author Nathan Merris
+ * @see TheMovieDbFetcher
+ */
+public final class TransferStats {
+
+    private static final AtomicLong sRequestCount = new AtomicLong();
+    private static final AtomicLong sWireBytes = new AtomicLong();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
+
+    private TransferStats() {
+    }
+
+
+    // called by TheMovieDbFetcher once per completed response
+    static void record(long wireBytes, long decodedBytes) {
+        sRequestCount.incrementAndGet();
+        sWireBytes.addAndGet(wireBytes);
+        sDecodedBytes.addAndGet(decodedBytes);
+    }
+
+
+    public static long getRequestCount() { return sRequestCount.get(); }
+
+    public static long getWireBytes() { return sWireBytes.get(); }
+
+    public static long getDecodedBytes() { return sDecodedBytes.get(); }
+
+
+    /**
+     * Use to see how much compression is saving.
+     *
+     * @return wire bytes divided by decoded bytes, 1.0 if nothing has been decoded yet
+     */
+    public static double getCompressionRatio() {
+        long decoded = sDecodedBytes.get();
+        return (decoded == 0) ? 1.0 : (double) sWireBytes.get() / decoded;
+    }
+
+
+    public static void reset() {
+        sRequestCount.set(0);
+        sWireBytes.set(0);
+        sDecodedBytes.set(0);
+    }
+
+
+    public static String getSummary() {
+        return "requests: " + getRequestCount() + ", wire bytes: " + getWireBytes()
+                + ", decoded bytes: " + getDecodedBytes()
+                + ", ratio: " + String.format(Locale.US, "%.2f", getCompressionRatio());
+    }
+
+
+}
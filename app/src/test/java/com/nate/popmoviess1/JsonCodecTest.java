@@ -0,0 +1,170 @@
+package com.nate.popmoviess1;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The hand-written codecs have to read what themoviedb actually sends, nulls and fields the app
+ * does not know about included, and read back exactly what they write.
+ */
+public class JsonCodecTest {
+
+    @Test
+    public void movie_readsDiscoverResult() throws Exception {
+        Movie movie = read(Movie.JSON_CODEC, json("{'poster_path': '/p.jpg', 'adult': false, 'overview': 'A plot.',"
+                + " 'release_date': '2015-06-12', 'genre_ids': [28, 12], 'id': 135397,"
+                + " 'original_title': 'Jurassic World', 'original_language': 'en', 'title': 'Jurassic World',"
+                + " 'backdrop_path': '/b.jpg', 'popularity': 88.5, 'vote_count': 5400, 'video': true,"
+                + " 'vote_average': 6.9}"));
+
+        assertEquals(135397, movie.id);
+        assertEquals("Jurassic World", movie.title);
+        assertEquals("A plot.", movie.overview);
+        assertEquals("/p.jpg", movie.getPosterPath());
+        assertEquals("/b.jpg", movie.getBackdropPath());
+        assertEquals(88.5f, movie.popularity, 0f);
+        assertEquals(6.9f, movie.vote_average, 0f);
+        assertEquals(5400, movie.vote_count);
+        assertTrue(movie.video);
+        assertArrayEquals(new Integer[]{28, 12}, movie.genre_ids);
+        assertEquals(2015, movie.getReleaseYear());
+    }
+
+
+    @Test
+    public void movie_nullsAreDefaultsAndUnknownFieldsAreSkipped() throws Exception {
+        Movie movie = read(Movie.JSON_CODEC, json("{'id': 7, 'overview': null, 'vote_average': null,"
+                + " 'adult': null, 'genre_ids': null, 'release_date': null,"
+                + " 'belongs_to_collection': {'id': 1, 'parts': [1, 2, {'x': null}]}, 'budget': 1e6}"));
+
+        assertEquals(7, movie.id);
+        assertNull(movie.overview);
+        assertEquals(0f, movie.vote_average, 0f);
+        assertFalse(movie.adult);
+        assertEquals(0, movie.genre_ids.length);
+        assertEquals(Movie.NO_RELEASE_DATE, movie.getReleaseEpochDay());
+    }
+
+
+    @Test
+    public void movie_writeThenRead_sameMovie() throws Exception {
+        Movie movie = read(Movie.JSON_CODEC, json("{'id': 11, 'title': 'Star Wars', 'overview': null,"
+                + " 'release_date': '1977-05-25', 'poster_path': '/sw.jpg', 'popularity': 12.25,"
+                + " 'vote_count': 9000, 'vote_average': 8.1, 'genre_ids': [12, 28, 878]}"));
+
+        Movie copy = read(Movie.JSON_CODEC, write(Movie.JSON_CODEC, movie));
+
+        assertTrue(copy.hasSameStoredFields(movie));
+        assertArrayEquals(movie.genre_ids, copy.genre_ids);
+        assertEquals(movie.getReleaseEpochDay(), copy.getReleaseEpochDay());
+    }
+
+
+    @Test
+    public void movie_floatsAreWrittenTheWayTheyWereRead() throws Exception {
+        Movie movie = read(Movie.JSON_CODEC, json("{'id': 3, 'vote_average': 7.3, 'popularity': 0.1}"));
+
+        String written = write(Movie.JSON_CODEC, movie);
+
+        assertTrue(written, written.contains(json("'vote_average':7.3,")));
+        assertTrue(written, written.contains(json("'popularity':0.1,")));
+        assertEquals(written, write(Movie.JSON_CODEC, read(Movie.JSON_CODEC, written))); // stable
+    }
+
+
+    @Test
+    public void movieArray_readsEveryMovie() throws Exception {
+        List<Movie> movies = new ArrayList<>();
+        Movie.JSON_CODEC.readArray(new JsonReader(new StringReader(json("[{'id': 1}, {'id': 2}, {'id': 3}]"))), movies);
+
+        assertEquals(3, movies.size());
+        assertEquals(3, movies.get(2).id);
+    }
+
+
+    @Test
+    public void certification_quotedOrderIsANumber() throws Exception {
+        MovieTheater.Certification cert = read(MovieTheater.Certification.JSON_CODEC,
+                json("{'certification': 'PG-13', 'meaning': 'Some material...', 'order': '3'}"));
+
+        assertEquals("PG-13", cert.name);
+        assertEquals(3, cert.order);
+    }
+
+
+    @Test
+    public void movieDetail_readsAppendedVideosAndReviews() throws Exception {
+        MovieDetail detail = read(MovieDetail.JSON_CODEC, json("{'id': 550, 'runtime': 139, 'tagline': null,"
+                + " 'genres': [{'id': 18, 'name': 'Drama'}], 'budget': 63000000,"
+                + " 'videos': {'results': [{'key': 'abc', 'name': 'Trailer', 'site': 'YouTube', 'type': 'Trailer', 'size': 1080}]},"
+                + " 'reviews': {'page': 1, 'results': [{'author': 'n8', 'content': 'Good.', 'url': 'http://x'}], 'total_pages': 1}}"));
+
+        assertEquals(550, detail.id);
+        assertEquals(139, detail.runtime);
+        assertNull(detail.tagline);
+        assertEquals("Drama", detail.getGenreNames());
+        assertEquals("abc", detail.videos.results[0].key);
+        assertEquals("n8", detail.reviews.results[0].author);
+    }
+
+
+    @Test
+    public void movieDetail_missingOrNullListsStayEmpty() throws Exception {
+        MovieDetail detail = read(MovieDetail.JSON_CODEC, json("{'id': 1, 'genres': null, 'videos': null}"));
+
+        assertEquals(0, detail.genres.length);
+        assertEquals(0, detail.videos.results.length);
+        assertEquals(0, detail.reviews.results.length);
+    }
+
+
+    @Test
+    public void movieDetail_writeThenRead_sameDetail() throws Exception {
+        MovieDetail detail = read(MovieDetail.JSON_CODEC, json("{'id': 550, 'runtime': 139, 'tagline': 'Mischief.',"
+                + " 'genres': [{'id': 18, 'name': 'Drama'}, {'id': 53, 'name': 'Thriller'}],"
+                + " 'videos': {'results': [{'key': 'abc', 'name': 'Trailer', 'site': 'YouTube', 'type': 'Trailer'}]},"
+                + " 'reviews': {'results': [{'author': 'n8', 'content': 'Good.', 'url': 'http://x'}]}}"));
+
+        MovieDetail copy = read(MovieDetail.JSON_CODEC, write(MovieDetail.JSON_CODEC, detail));
+
+        assertEquals(detail.id, copy.id);
+        assertEquals(detail.runtime, copy.runtime);
+        assertEquals(detail.tagline, copy.tagline);
+        assertEquals("Drama, Thriller", copy.getGenreNames());
+        assertEquals("Trailer", copy.videos.results[0].type);
+        assertEquals("http://x", copy.reviews.results[0].url);
+    }
+
+
+    // the json above is written with single quotes so it can be read in a Java String
+    private static String json(String singleQuoted) {
+        return singleQuoted.replace('\'', '"');
+    }
+
+    private static <T> T read(JsonCodec<T> codec, String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        T value = codec.read(reader);
+        reader.close();
+        return value;
+    }
+
+    private static <T> String write(JsonCodec<T> codec, T value) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.setSerializeNulls(true);
+        codec.write(writer, value);
+        writer.close();
+        return json.toString();
+    }
+
+}
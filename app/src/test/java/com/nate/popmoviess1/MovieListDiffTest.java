@@ -0,0 +1,209 @@
+package com.nate.popmoviess1;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every test replays the callbacks on a copy of the old list, the way RecyclerView would, and checks
+ * it ends up lined up with the new list.
+ */
+public class MovieListDiffTest {
+
+    @Test
+    public void sameList_notifiesNothing() {
+        Replay replay = diff(movies(1, 2, 3), movies(1, 2, 3));
+
+        assertEquals(0, replay.mInserts + replay.mRemoves + replay.mChanges);
+    }
+
+
+    @Test
+    public void lastMovieDropsOff_oneRemove() {
+        Replay replay = diff(movies(1, 2, 3, 4, 5), movies(1, 2, 3, 4));
+
+        assertEquals(1, replay.mRemoves);
+        assertEquals(0, replay.mInserts);
+        assertEquals("[remove 4]", replay.mEvents.toString());
+    }
+
+
+    @Test
+    public void newMovieAtTheFront_oneInsert() {
+        Replay replay = diff(movies(1, 2, 3), movies(9, 1, 2, 3));
+
+        assertEquals("[insert 0]", replay.mEvents.toString());
+    }
+
+
+    @Test
+    public void twoMoviesSwap_onlyOneOfThemMoves() {
+        Replay replay = diff(movies(1, 2, 3), movies(2, 1, 3));
+
+        assertEquals(1, replay.mRemoves);
+        assertEquals(1, replay.mInserts);
+    }
+
+
+    @Test
+    public void sameIdNewMetadata_changedAtItsPosition() {
+        List<Movie> newMovies = movies(1, 2, 3);
+        newMovies.get(1).title = "a new title";
+
+        Replay replay = diff(movies(1, 2, 3), newMovies);
+
+        assertEquals("[change 1]", replay.mEvents.toString());
+    }
+
+
+    @Test
+    public void changeIsReportedAtThePositionAfterEarlierRemoves() {
+        List<Movie> newMovies = movies(3, 4);
+        newMovies.get(1).vote_count = 99;
+
+        Replay replay = diff(movies(1, 2, 3, 4), newMovies);
+
+        assertEquals("[remove 0, remove 0, change 1]", replay.mEvents.toString());
+    }
+
+
+    @Test
+    public void emptyToFullAndBack() {
+        assertEquals(3, diff(movies(), movies(1, 2, 3)).mInserts);
+        assertEquals(3, diff(movies(1, 2, 3), movies()).mRemoves);
+    }
+
+
+    @Test
+    public void randomLists_alwaysReplayToTheNewList() {
+        Random random = new Random(49);
+        for (int round = 0; round < 500; round++) {
+            diff(randomMovies(random), randomMovies(random)); // Replay checks the result itself
+        }
+    }
+
+
+    @Test
+    public void tooBigToDiff_returnsFalseAndNotifiesNothing() {
+        Replay replay = new Replay(ids(range(300)));
+
+        assertFalse(MovieListDiff.dispatch(range(300), range(301), replay));
+        assertTrue(replay.mEvents.isEmpty());
+    }
+
+
+    @Test
+    public void underTheLimit_isDiffed() {
+        List<Movie> newMovies = range(200);
+        Collections.reverse(newMovies);
+
+        diff(range(200), newMovies);
+    }
+
+
+    // runs the diff, replays it, and fails unless the replayed list lines up with newMovies
+    private static Replay diff(List<Movie> oldMovies, List<Movie> newMovies) {
+        Replay replay = new Replay(ids(oldMovies));
+        assertTrue(MovieListDiff.dispatch(oldMovies, newMovies, replay));
+
+        assertEquals(newMovies.size(), replay.mIds.size());
+        int changed = 0;
+        for (int i = 0; i < newMovies.size(); i++) {
+            Integer id = replay.mIds.get(i);
+            if(id == null) continue; // inserted, it gets bound anyway
+
+            assertEquals("position " + i, newMovies.get(i).id, id.intValue()); // kept movies line up
+            if(!movieWithId(oldMovies, id).hasSameStoredFields(newMovies.get(i))) {
+                assertTrue("movie " + id + " changed but was not rebound", replay.mChangedIds.contains(id));
+                changed++;
+            }
+        }
+        assertEquals(changed, replay.mChanges); // and nothing that stayed the same was rebound
+        return replay;
+    }
+
+
+    // the old ids, with null for every inserted movie, just like positions in an adapter
+    private static class Replay implements MovieListDiff.Callback {
+        final List<Integer> mIds;
+        final List<String> mEvents = new ArrayList<>();
+        final List<Integer> mChangedIds = new ArrayList<>();
+        int mInserts;
+        int mRemoves;
+        int mChanges;
+
+        Replay(List<Integer> oldIds) { mIds = new ArrayList<>(oldIds); }
+
+        @Override
+        public void onInserted(int position) {
+            mIds.add(position, null);
+            mEvents.add("insert " + position);
+            mInserts++;
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            mIds.remove(position);
+            mEvents.add("remove " + position);
+            mRemoves++;
+        }
+
+        @Override
+        public void onChanged(int position) {
+            assertNotNull("changed an inserted movie", mIds.get(position));
+            mChangedIds.add(mIds.get(position));
+            mEvents.add("change " + position);
+            mChanges++;
+        }
+    }
+
+
+    private static List<Movie> movies(int... ids) {
+        List<Movie> movies = new ArrayList<>();
+        for (int id : ids) {
+            Movie movie = new Movie();
+            movie.id = id;
+            movie.title = "movie " + id;
+            movies.add(movie);
+        }
+        return movies;
+    }
+
+    private static List<Movie> range(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) ids[i] = i;
+        return movies(ids);
+    }
+
+    // up to 20 distinct ids out of 30, in any order
+    private static List<Movie> randomMovies(Random random) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++) ids.add(i);
+        Collections.shuffle(ids, random);
+
+        int[] picked = new int[random.nextInt(21)];
+        for (int i = 0; i < picked.length; i++) picked[i] = ids.get(i);
+        List<Movie> movies = movies(picked);
+        if(!movies.isEmpty() && random.nextBoolean()) movies.get(0).popularity = random.nextFloat();
+        return movies;
+    }
+
+    private static Movie movieWithId(List<Movie> movies, int id) {
+        for (Movie movie : movies) {
+            if(movie.id == id) return movie;
+        }
+        throw new AssertionError("no movie " + id);
+    }
+
+    private static List<Integer> ids(List<Movie> movies) {
+        List<Integer> ids = new ArrayList<>();
+        for (Movie movie : movies) ids.add(movie.id);
+        return ids;
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.nate.popmoviess1;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The year pref is typed in by the user, so MovieQuery has to turn anything sensible into sorted,
+ * joined YearRanges and refuse everything else, and two ways of typing the same years have to end
+ * up as the same key.
+ */
+public class MovieQueryTest {
+
+    @Test
+    public void singleYear() {
+        assertEquals("[1999]", years("1999").toString());
+        assertTrue(years("1999").get(0).isSingleYear());
+    }
+
+
+    @Test
+    public void range_eitherWayRound() {
+        assertEquals("[1990-1999]", years("1990-1999").toString());
+        assertEquals("[1990-1999]", years("1999-1990").toString());
+        assertEquals("[1990-1999]", years(" 1990 - 1999 ").toString());
+    }
+
+
+    @Test
+    public void list_isSorted() {
+        assertEquals("[1985, 1990-1995]", years("1985, 1990-1995").toString());
+        assertEquals("[1985, 1990-1995, 2005]", years("2005,1990-1995, 1985").toString());
+    }
+
+
+    @Test
+    public void overlappingAndTouchingRanges_areJoined() {
+        assertEquals("[1990-1999]", years("1990-1995, 1994-1999").toString());
+        assertEquals("[1990-1999]", years("1990-1994, 1995-1999").toString());
+        assertEquals("[1990-1999]", years("1990-1999, 1993, 1999").toString());
+        assertEquals("[1990-1994, 1996-1999]", years("1996-1999, 1990-1994").toString());
+    }
+
+
+    @Test
+    public void notYears_areRefused() {
+        String[] notYears = {"", "19", "20155", "abc", "1990-1995-1999", "1990,,1995", "-1990",
+                String.valueOf(MovieQuery.MIN_RELEASE_YEAR - 1), String.valueOf(MovieQuery.MAX_RELEASE_YEAR + 1),
+                "1990, 20155"};
+
+        for (String notYear : notYears) {
+            assertFalse("'" + notYear + "'", MovieQuery.isValidYearPref(notYear));
+            assertFalse("'" + notYear + "'", query(notYear, "-1", true).hasValidYears());
+        }
+    }
+
+
+    @Test
+    public void firstAndLastYears_areAllowed() {
+        assertTrue(MovieQuery.isValidYearPref(String.valueOf(MovieQuery.MIN_RELEASE_YEAR)));
+        assertTrue(MovieQuery.isValidYearPref(String.valueOf(MovieQuery.MAX_RELEASE_YEAR)));
+    }
+
+
+    @Test
+    public void yearSwitchOff_yearIsLeftOut() {
+        MovieQuery query = query("not even a year", "-1", false);
+
+        assertTrue(query.hasValidYears());
+        assertTrue(query.years.isEmpty());
+        assertEquals(query("1999", "-1", false), query);
+        assertEquals("q1;cert=*;years=*;genres=*;sort=popularity.desc", query.key);
+    }
+
+
+    @Test
+    public void sameYearsTypedDifferently_sameKey() {
+        assertEquals(query("1990 - 1999", "-1", true).key, query("1990-1994,1995-1999", "-1", true).key);
+        assertNotEquals(query("1990-1999", "-1", true).key, query("1990-1998", "-1", true).key);
+    }
+
+
+    @Test
+    public void genres_sortedWithoutDuplicatesOrAnyGenre() {
+        MovieQuery query = query("2005", "35,28,35,-1", true);
+
+        assertArrayEquals(new int[]{28, 35}, query.genreIds);
+        assertEquals("q1;cert=*;years=2005;genres=28,35;sort=popularity.desc", query.key);
+        assertEquals(0, query("2005", "-1", true).genreIds.length);
+    }
+
+
+    @Test
+    public void certOf_readsTheKeyBack() {
+        MovieQuery query = new MovieQuery("PG-13", false, "1999", "-1", "popularity.desc", true);
+
+        assertEquals("PG-13", MovieQuery.certOf(query.key));
+        assertNull(MovieQuery.certOf(query("1999", "-1", true).key));
+        assertNull(MovieQuery.certOf("some old key"));
+    }
+
+
+    private static MovieQuery query(String yearPref, String genrePref, boolean querySpecificYear) {
+        return new MovieQuery("Any Rating", true, yearPref, genrePref, "popularity.desc", querySpecificYear);
+    }
+
+    private static List<MovieQuery.YearRange> years(String yearPref) {
+        return query(yearPref, "-1", true).years;
+    }
+
+}
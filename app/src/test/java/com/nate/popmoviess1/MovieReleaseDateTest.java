@@ -0,0 +1,80 @@
+package com.nate.popmoviess1;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Movie turns release_date into days since 1970-01-01 with plain integer math, so it is checked here
+ * against GregorianCalendar for every day themoviedb could have a movie for.
+ */
+public class MovieReleaseDateTest {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000; // UTC midnights divide exactly
+
+
+    @Test
+    public void knownDates() {
+        assertEquals(0, movie("1970-01-01").getReleaseEpochDay());
+        assertEquals(1, movie("1970-01-02").getReleaseEpochDay());
+        assertEquals(-1, movie("1969-12-31").getReleaseEpochDay());
+        assertEquals(11016, movie("2000-02-29").getReleaseEpochDay());
+        assertEquals(11017, movie("2000-03-01").getReleaseEpochDay());
+    }
+
+
+    @Test
+    public void everyDay_sameAsGregorianCalendar() {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+        calendar.clear();
+        calendar.set(MovieQuery.MIN_RELEASE_YEAR, Calendar.JANUARY, 1);
+
+        while (calendar.get(Calendar.YEAR) <= MovieQuery.MAX_RELEASE_YEAR) {
+            int year = calendar.get(Calendar.YEAR);
+            String date = String.format(Locale.US, "%04d-%02d-%02d",
+                    year, calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+            Movie movie = movie(date);
+
+            assertEquals(date, calendar.getTimeInMillis() / MILLIS_PER_DAY, movie.getReleaseEpochDay());
+            assertEquals(date, year, movie.getReleaseYear());
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+
+    @Test
+    public void notADate_noReleaseDate() {
+        String[] notDates = {null, "", "2015", "2015-6-12", "2015/06/12", "2015-13-01", "2015-00-10",
+                "2015-01-32", "2015-01-00", "20a5-01-01", "2015-01-1x", " 2015-01-01"};
+
+        for (String notADate : notDates) {
+            Movie movie = movie(notADate);
+            assertEquals(String.valueOf(notADate), Movie.NO_RELEASE_DATE, movie.getReleaseEpochDay());
+            assertEquals(String.valueOf(notADate), -1, movie.getReleaseYear());
+        }
+    }
+
+
+    @Test
+    public void parseReleaseDate_picksUpANewDate() {
+        Movie movie = movie("1999-12-31");
+        assertEquals(1999, movie.getReleaseYear());
+
+        movie.release_date = "2000-01-01";
+        movie.parseReleaseDate();
+        assertEquals(2000, movie.getReleaseYear());
+    }
+
+
+    private static Movie movie(String releaseDate) {
+        Movie movie = new Movie();
+        movie.release_date = releaseDate;
+        return movie;
+    }
+
+}
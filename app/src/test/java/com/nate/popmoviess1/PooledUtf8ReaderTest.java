@@ -0,0 +1,153 @@
+package com.nate.popmoviess1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * PooledUtf8Reader decodes straight into the caller's char array, so the tricky parts are a code
+ * point whose bytes arrive in different reads, a supplementary character (two chars) when the caller
+ * only has room for one, and whatever is left over when the input ends.
+ */
+public class PooledUtf8ReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 1, 2, 3 and 4 byte UTF-8, the last two are supplementary characters (surrogate pairs in Java)
+    private static final String MIXED = "a\u00e9\u20ac\ud83d\ude00z\ud834\udd1e";
+
+
+    @Test
+    public void oneCharReads_codePointsSplitAcrossReads() throws Exception {
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            assertEquals("chunk size " + chunkSize, MIXED, readAll(reader(MIXED, chunkSize), 1));
+        }
+    }
+
+
+    @Test
+    public void oneCharReads_bodyBiggerThanThePooledBuffer() throws Exception {
+        // a one byte prefix so the 8 byte pattern does not line up with the end of the buffer
+        StringBuilder text = new StringBuilder("x");
+        while (text.length() < 3 * TheMovieDbFetcher.BufferPool.MAX_SIZE) text.append(MIXED);
+
+        assertEquals(text.toString(), readAll(reader(text.toString(), 7), 1));
+        assertEquals(text.toString(), readAll(reader(text.toString(), Integer.MAX_VALUE), 1));
+    }
+
+
+    @Test
+    public void oneCharRead_supplementaryCharacterComesBackOneHalfAtATime() throws Exception {
+        TheMovieDbFetcher.PooledUtf8Reader reader = reader("\ud83d\ude00", 1);
+
+        assertEquals('\ud83d', reader.read());
+        assertEquals('\ude00', reader.read()); // the half that did not fit last time
+        assertEquals(-1, reader.read());
+    }
+
+
+    @Test
+    public void pendingLowSurrogate_isFirstInTheNextBiggerRead() throws Exception {
+        TheMovieDbFetcher.PooledUtf8Reader reader = reader("\ud83d\ude00bc", 1);
+        char[] chars = new char[8];
+
+        assertEquals(1, reader.read(chars, 0, 1));
+        assertEquals('\ud83d', chars[0]);
+
+        // a read can return less than it was asked for, but the pending half always comes first
+        int count = reader.read(chars, 2, 6);
+        assertTrue(count >= 1);
+        assertEquals('\ude00', chars[2]);
+        assertEquals("\ude00bc", new String(chars, 2, count) + readAll(reader, 6));
+    }
+
+
+    @Test
+    public void mixedReadSizes_sameTextAsOneCharReads() throws Exception {
+        for (int charsPerRead = 2; charsPerRead <= 5; charsPerRead++) {
+            assertEquals("chars per read " + charsPerRead,
+                    MIXED + MIXED, readAll(reader(MIXED + MIXED, 3), charsPerRead));
+        }
+    }
+
+
+    @Test
+    public void endOfInput_truncatedCodePointIsFlushedAsReplacement() throws Exception {
+        byte[] euro = "\u20ac".getBytes(UTF_8);
+        byte[] bytes = Arrays.copyOf("ab".getBytes(UTF_8), 4);
+        bytes[2] = euro[0];
+        bytes[3] = euro[1]; // the euro sign's last byte never arrives
+
+        TheMovieDbFetcher.PooledUtf8Reader reader =
+                new TheMovieDbFetcher.PooledUtf8Reader(new ChunkedInputStream(bytes, 1), bytes.length);
+
+        assertEquals('a', reader.read());
+        assertEquals('b', reader.read());
+        assertEquals('\ufffd', reader.read());
+        assertEquals(-1, reader.read());
+        assertEquals(-1, reader.read()); // still at the end after the flush
+    }
+
+
+    @Test
+    public void emptyBody_endsRightAway() throws Exception {
+        assertEquals(-1, reader("", 1).read());
+    }
+
+
+    @Test(expected = IOException.class)
+    public void read_afterClose_throws() throws Exception {
+        TheMovieDbFetcher.PooledUtf8Reader reader = reader(MIXED, 1);
+        reader.close();
+        reader.read();
+    }
+
+
+    private static TheMovieDbFetcher.PooledUtf8Reader reader(String text, int chunkSize) {
+        byte[] bytes = text.getBytes(UTF_8);
+        return new TheMovieDbFetcher.PooledUtf8Reader(new ChunkedInputStream(bytes, chunkSize), bytes.length);
+    }
+
+
+    private static String readAll(TheMovieDbFetcher.PooledUtf8Reader reader, int charsPerRead)
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[charsPerRead];
+        int count;
+        while ((count = reader.read(chars, 0, charsPerRead)) != -1) {
+            assertTrue("a read returned no chars", count > 0);
+            text.append(chars, 0, count);
+        }
+        reader.close();
+        return text.toString();
+    }
+
+
+    // hands back at most chunkSize bytes per read, like a slow network would
+    private static class ChunkedInputStream extends InputStream {
+        private final ByteArrayInputStream mIn;
+        private final int mChunkSize;
+
+        ChunkedInputStream(byte[] bytes, int chunkSize) {
+            mIn = new ByteArrayInputStream(bytes);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return mIn.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            return mIn.read(buffer, offset, Math.min(count, mChunkSize));
+        }
+    }
+
+}